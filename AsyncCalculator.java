@@ -0,0 +1,307 @@
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AsyncCalculator evaluates commands for many named sessions without blocking the caller.
+ * <p>
+ * Each command submitted returns a future of the lines of output it produced. The commands of one
+ * session run strictly in the order they were submitted, one at a time, while different sessions
+ * run in parallel on a given executor. Each session has its own {@link SRPN}, created when its
+ * first command is submitted, and compiled programs are shared between sessions.
+ * <p>
+ * Futures are completed on the executor's threads, so dependent actions that are not async run
+ * there too and should be quick. The number of commands waiting to run and the time from
+ * submission to completion are recorded, so that a backlog can be detected.
+ */
+public final class AsyncCalculator {
+
+  /**
+   * The largest number of commands of one session run before its thread is given up to others,
+   * so that a busy session cannot starve the rest.
+   */
+  private static final int BATCH_SIZE = 64;
+
+  /**
+   * The executor commands are run on.
+   */
+  private final Executor executor;
+
+  /**
+   * The open sessions, by id.
+   */
+  private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+  /**
+   * The cache of compiled programs shared by every session.
+   */
+  private final ProgramCache programs = new ProgramCache(4096);
+
+  /**
+   * The number of commands submitted but not yet completed.
+   */
+  private final LongAdder pending = new LongAdder();
+
+  /**
+   * The number of commands completed, normally or exceptionally.
+   */
+  private final LongAdder completed = new LongAdder();
+
+  /**
+   * The time from the submission of each command to its completion.
+   */
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  /**
+   * Create a calculator running sessions on an executor.
+   *
+   * @param executor The executor commands are run on
+   */
+  public AsyncCalculator(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Submit a command to a session, opening the session if it does not exist. A command that
+   * throws completes its future exceptionally with a {@link CommandException} holding the output
+   * produced before the failure, and the session goes on with the state the command left.
+   *
+   * @param sessionId The id of the session
+   * @param line The command to be processed
+   * @return a future of the lines of output produced by the command
+   */
+  public CompletableFuture<List<String>> submit(String sessionId, String line) {
+    Command command = new Command(line);
+    this.pending.increment();
+    this.sessions.computeIfAbsent(sessionId, id -> new Session()).enqueue(command);
+    return command.result;
+  }
+
+  /**
+   * Close a session, discarding its state. Commands already submitted to it still run.
+   *
+   * @param sessionId The id of the session
+   * @return true if the session was open
+   */
+  public boolean close(String sessionId) {
+    return this.sessions.remove(sessionId) != null;
+  }
+
+  /**
+   * Get the number of open sessions.
+   *
+   * @return the number of sessions
+   */
+  public int sessions() {
+    return this.sessions.size();
+  }
+
+  /**
+   * Get the number of commands submitted but not yet completed, across all sessions.
+   *
+   * @return the depth of the queue of commands
+   */
+  public long pending() {
+    return this.pending.sum();
+  }
+
+  /**
+   * Get the number of commands completed.
+   *
+   * @return the number of commands completed, normally or exceptionally
+   */
+  public long completed() {
+    return this.completed.sum();
+  }
+
+  /**
+   * Get the histogram of the time from the submission of each command to its completion.
+   *
+   * @return the command latency histogram
+   */
+  public LatencyHistogram latency() {
+    return this.latency;
+  }
+
+  /**
+   * Get a one-line summary of the queue and latency metrics.
+   *
+   * @return the metrics as text
+   */
+  public String metrics() {
+    return String.format("sessions=%d pending=%d completed=%d latency %s", this.sessions(),
+        this.pending(), this.completed(), this.latency);
+  }
+
+  /**
+   * CommandException is the failure of a command, holding the lines of output the command produced
+   * before it threw, which are sent before the failure as the console does.
+   */
+  public static final class CommandException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The lines of output produced before the failure.
+     */
+    private final List<String> output;
+
+    /**
+     * Create the failure of a command.
+     *
+     * @param cause The exception thrown by the command
+     * @param output The lines of output produced before the failure
+     */
+    CommandException(RuntimeException cause, List<String> output) {
+      super(cause);
+      this.output = output;
+    }
+
+    /**
+     * Get the lines of output the command produced before it threw.
+     *
+     * @return the output before the failure
+     */
+    public List<String> output() {
+      return this.output;
+    }
+  }
+
+  /**
+   * A command waiting to run, with the future of its output.
+   */
+  private static final class Command {
+
+    /**
+     * The command to be processed.
+     */
+    final String line;
+
+    /**
+     * The future of the lines of output produced by the command.
+     */
+    final CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+    /**
+     * The time the command was submitted, from {@link System#nanoTime()}.
+     */
+    final long submitted = System.nanoTime();
+
+    Command(String line) {
+      this.line = line;
+    }
+  }
+
+  /**
+   * Session runs the commands of one calculator in order, scheduling itself on the executor
+   * whenever it has commands waiting and is not already running.
+   */
+  private final class Session implements Runnable {
+
+    /**
+     * The sink collecting the output of the current command.
+     */
+    private final CollectingOutputSink out = new CollectingOutputSink();
+
+    /**
+     * The calculator of the session.
+     */
+    private final SRPN srpn = new SRPN(this.out, AsyncCalculator.this.programs);
+
+    /**
+     * The commands waiting to run, guarded by the session's monitor.
+     */
+    private final ArrayDeque<Command> queue = new ArrayDeque<>();
+
+    /**
+     * Whether the session is scheduled or running on the executor, guarded by the session's
+     * monitor.
+     */
+    private boolean scheduled = false;
+
+    /**
+     * Add a command to the queue, scheduling the session if it is idle.
+     *
+     * @param command The command to be run
+     */
+    void enqueue(Command command) {
+      synchronized (this) {
+        this.queue.add(command);
+        if (this.scheduled) {
+          return;
+        }
+        this.scheduled = true;
+      }
+      this.schedule();
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        Command command;
+        synchronized (this) {
+          command = this.queue.poll();
+          if (command == null) {
+            this.scheduled = false;
+            return;
+          }
+        }
+        this.execute(command);
+      }
+      // give the thread up to other sessions before running the rest
+      this.schedule();
+    }
+
+    /**
+     * Run this session on the executor, failing its waiting commands if the executor rejects it.
+     */
+    private void schedule() {
+      try {
+        AsyncCalculator.this.executor.execute(this);
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          for (Command command : this.queue) {
+            this.complete(command);
+            command.result.completeExceptionally(e);
+          }
+          this.queue.clear();
+          this.scheduled = false;
+        }
+      }
+    }
+
+    /**
+     * Process a single command and complete its future.
+     *
+     * @param command The command to be processed
+     */
+    private void execute(Command command) {
+      this.out.clear();
+      try {
+        this.srpn.processCommand(command.line);
+      } catch (RuntimeException e) {
+        List<String> output = List.copyOf(this.out.lines());
+        this.complete(command);
+        command.result.completeExceptionally(new CommandException(e, output));
+        return;
+      }
+      List<String> output = List.copyOf(this.out.lines());
+      this.complete(command);
+      command.result.complete(output);
+    }
+
+    /**
+     * Record the completion of a command.
+     *
+     * @param command The command that has completed
+     */
+    private void complete(Command command) {
+      AsyncCalculator.this.latency.record(System.nanoTime() - command.submitted);
+      AsyncCalculator.this.pending.decrement();
+      AsyncCalculator.this.completed.increment();
+    }
+  }
+}
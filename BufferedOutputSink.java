@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+
+/**
+ * BufferedOutputSink collects output in a byte buffer and writes it to an output stream in bulk.
+ * <p>
+ * The buffer is written whenever it fills, when {@link #flush()} is called (e.g. at the end of
+ * input), and optionally after a configurable number of lines. Integers are formatted straight into
+ * the buffer so that outputting a result does not allocate.
+ */
+public final class BufferedOutputSink implements OutputSink {
+
+  /**
+   * The default size of the buffer in bytes.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The stream that buffered output is written to.
+   */
+  private final OutputStream out;
+
+  /**
+   * The number of lines after which the buffer is flushed, or 0 to flush only when full or asked.
+   */
+  private final int flushInterval;
+
+  /**
+   * The character set used to encode lines of text that are not ASCII.
+   */
+  private final Charset charset;
+
+  /**
+   * The bytes separating lines of output.
+   */
+  private final byte[] lineSeparator;
+
+  /**
+   * The output waiting to be written.
+   */
+  private final byte[] buffer;
+
+  /**
+   * The number of bytes of output waiting to be written.
+   */
+  private int count = 0;
+
+  /**
+   * The number of lines output since the buffer was last flushed.
+   */
+  private int pendingLines = 0;
+
+  /**
+   * Create a sink that flushes only when the buffer is full or when asked.
+   *
+   * @param out The stream that output is written to
+   */
+  public BufferedOutputSink(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE, 0);
+  }
+
+  /**
+   * Create a sink with a given buffer size and flush interval.
+   *
+   * @param out The stream that output is written to
+   * @param bufferSize The size of the buffer in bytes
+   * @param flushInterval The number of lines after which the buffer is flushed, or 0 to flush only
+   *     when the buffer is full or when asked
+   */
+  public BufferedOutputSink(OutputStream out, int bufferSize, int flushInterval) {
+    if (bufferSize < 16) {
+      throw new IllegalArgumentException("Buffer size must be at least 16 bytes");
+    }
+    this.out = out;
+    this.flushInterval = flushInterval;
+    this.charset = Charset.defaultCharset();
+    this.lineSeparator = System.lineSeparator().getBytes(this.charset);
+    this.buffer = new byte[bufferSize];
+  }
+
+  @Override
+  public void println(int value) {
+    // an int has at most 11 characters
+    this.ensureSpace(11);
+    if (value == Integer.MIN_VALUE) {
+      this.write("-2147483648");
+    } else {
+      if (value < 0) {
+        this.buffer[this.count++] = '-';
+        value = -value;
+      }
+      int end = this.count + digits(value);
+      int index = end;
+      do {
+        this.buffer[--index] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value != 0);
+      this.count = end;
+    }
+    this.endLine();
+  }
+
+  @Override
+  public void println(String line) {
+    this.write(line);
+    this.endLine();
+  }
+
+  @Override
+  public void flush() {
+    try {
+      this.drain();
+      this.out.flush();
+      this.pendingLines = 0;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Add text to the buffer, encoding it directly if it is ASCII.
+   *
+   * @param text The text to be added
+   */
+  private void write(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) >= 0x80) {
+        this.write(text.getBytes(this.charset));
+        return;
+      }
+    }
+    for (int i = 0; i < text.length(); i++) {
+      this.ensureSpace(1);
+      this.buffer[this.count++] = (byte) text.charAt(i);
+    }
+  }
+
+  /**
+   * Add bytes to the buffer.
+   *
+   * @param bytes The bytes to be added
+   */
+  private void write(byte[] bytes) {
+    for (byte b : bytes) {
+      this.ensureSpace(1);
+      this.buffer[this.count++] = b;
+    }
+  }
+
+  /**
+   * End the current line, flushing the buffer if the flush interval has been reached.
+   */
+  private void endLine() {
+    this.write(this.lineSeparator);
+    this.pendingLines++;
+    if (this.flushInterval > 0 && this.pendingLines >= this.flushInterval) {
+      this.flush();
+    }
+  }
+
+  /**
+   * Make sure there is space in the buffer, writing out its contents if there is not.
+   *
+   * @param bytes The number of bytes of space needed
+   */
+  private void ensureSpace(int bytes) {
+    if (this.count + bytes > this.buffer.length) {
+      try {
+        this.drain();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Write the contents of the buffer to the stream without flushing the stream.
+   *
+   * @throws IOException if the buffer could not be written
+   */
+  private void drain() throws IOException {
+    if (this.count > 0) {
+      this.out.write(this.buffer, 0, this.count);
+      this.count = 0;
+    }
+  }
+
+  /**
+   * Count the decimal digits of a non-negative integer.
+   *
+   * @param value The value to be counted
+   * @return the number of digits needed to write the value
+   */
+  private static int digits(int value) {
+    int digits = 1;
+    while (value >= 10) {
+      value /= 10;
+      digits++;
+    }
+    return digits;
+  }
+}
@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CollectingOutputSink keeps every line of output in memory, for use when a calculator is embedded
+ * in another program.
+ */
+public final class CollectingOutputSink implements OutputSink {
+
+  /**
+   * The lines output since the sink was created or last cleared.
+   */
+  private final List<String> lines = new ArrayList<>();
+
+  @Override
+  public void println(int value) {
+    this.lines.add(Integer.toString(value));
+  }
+
+  @Override
+  public void println(String line) {
+    this.lines.add(line);
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  /**
+   * Get the lines output since the sink was created or last cleared.
+   *
+   * @return the collected lines, in the order they were output
+   */
+  public List<String> lines() {
+    return this.lines;
+  }
+
+  /**
+   * Discard all collected lines.
+   */
+  public void clear() {
+    this.lines.clear();
+  }
+}
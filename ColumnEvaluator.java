@@ -0,0 +1,355 @@
+import java.util.Arrays;
+
+/**
+ * ColumnEvaluator runs one RPN program over every row of a set of integer input columns.
+ * <p>
+ * The program is parsed once, with single letters standing for the input columns (e.g. a b * c +
+ * with the columns a, b and c). Each row is evaluated as if by a fresh {@link SRPN} with the values
+ * of its row pushed in place of the letters, and the result of a row is the value left at the top
+ * of the stack. Rows are evaluated a block at a time, one instruction at a time across the whole
+ * block, so that the saturating arithmetic runs in tight loops over arrays. Addition, subtraction
+ * and multiplication use the Vector API through {@link VectorKernels} when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, and scalar loops otherwise.
+ * <p>
+ * A divisor of 0 changes how the rest of a row is evaluated, so rows that divide by 0 are evaluated
+ * again by an {@link SRPN}, which keeps the results identical to the scalar calculator. The outcome
+ * of each row is reported in a status array.
+ */
+public final class ColumnEvaluator {
+
+  /**
+   * The status of a row that was evaluated without error.
+   */
+  public static final byte OK = 0;
+
+  /**
+   * The status of a row in which an operator had too few operands.
+   */
+  public static final byte STACK_UNDERFLOW = 1;
+
+  /**
+   * The status of a row in which an operand was pushed onto a full stack.
+   */
+  public static final byte STACK_OVERFLOW = 2;
+
+  /**
+   * The status of a row in which a division by 0 was attempted.
+   */
+  public static final byte DIVIDE_BY_ZERO = 3;
+
+  /**
+   * The status of a row in which a modulo division by 0 was attempted, which the scalar calculator
+   * does not handle. The result of such a row is 0.
+   */
+  public static final byte MOD_BY_ZERO = 4;
+
+  /**
+   * The status of a row that left the stack empty. The result of such a row is 0.
+   */
+  public static final byte STACK_EMPTY = 5;
+
+  /**
+   * The number of rows evaluated at a time.
+   */
+  private static final int BLOCK_SIZE = 1024;
+
+  /**
+   * The instructions of the program, with a placeholder push for each column reference.
+   */
+  private final Instruction[] instructions;
+
+  /**
+   * The index of the column referenced by each instruction, or -1 if it does not reference one.
+   */
+  private final int[] columns;
+
+  /**
+   * Whether each instruction is skipped because it underflows or overflows the stack in every row.
+   */
+  private final boolean[] skipped;
+
+  /**
+   * The number of columns referenced by the program.
+   */
+  private final int columnCount;
+
+  /**
+   * The status of a row without division by 0.
+   */
+  private final byte status;
+
+  private ColumnEvaluator(Instruction[] instructions, int[] columns, int columnCount) {
+    this.instructions = instructions;
+    this.columns = columns;
+    this.columnCount = columnCount;
+    this.skipped = new boolean[instructions.length];
+    // the depth of the stack at each instruction is the same for every row until a division by 0
+    byte status = OK;
+    int depth = 0;
+    for (int i = 0; i < instructions.length; i++) {
+      Instruction instruction = instructions[i];
+      if (instruction.kind == Instruction.Kind.PUSH) {
+        if (depth == SRPN.MAX_STACK_SIZE) {
+          this.skipped[i] = true;
+          status = status == OK ? STACK_OVERFLOW : status;
+        } else {
+          depth++;
+        }
+      } else if (instruction.operands() == 2) {
+        if (depth < 2) {
+          this.skipped[i] = true;
+          status = status == OK ? STACK_UNDERFLOW : status;
+        } else {
+          depth--;
+        }
+      }
+    }
+    this.status = status != OK ? status : depth == 0 ? STACK_EMPTY : OK;
+  }
+
+  /**
+   * Parse a program whose letters stand for input columns.
+   *
+   * @param program The RPN program to be evaluated for each row
+   * @param columnNames The letters standing for the input columns, in the order the columns will be
+   *     passed to {@link #evaluate(int[][], int[], byte[])} (e.g. "abc")
+   * @return an evaluator for the program
+   * @throws IllegalArgumentException if the program contains a token that is not a literal, a
+   *     column or an operator, or uses the r operator, whose values depend on the session
+   */
+  public static ColumnEvaluator compile(String program, String columnNames) {
+    for (int i = 0; i < columnNames.length(); i++) {
+      char name = columnNames.charAt(i);
+      if (Opcode.resolve(String.valueOf(name)) != Opcode.UNRECOGNISED
+          || !Character.isLetter(name) || columnNames.indexOf(name) != i) {
+        throw new IllegalArgumentException("Invalid column name '" + name + "'");
+      }
+    }
+    Program compiled = Program.compile(program, new Lexer());
+    Instruction[] instructions = new Instruction[compiled.size()];
+    int[] columns = new int[compiled.size()];
+    for (int i = 0; i < compiled.size(); i++) {
+      Instruction instruction = compiled.get(i);
+      columns[i] = -1;
+      if (instruction.kind == Instruction.Kind.UNRECOGNISED) {
+        columns[i] = instruction.text.length() == 1 ? columnNames.indexOf(instruction.text) : -1;
+        if (columns[i] < 0) {
+          throw new IllegalArgumentException(
+              "Unrecognised operator or operand \"" + instruction.text + "\".");
+        }
+        instruction = Instruction.push(0);
+      } else if (instruction.opcode() == Opcode.RANDOM) {
+        throw new IllegalArgumentException("The r operator is not supported in column programs");
+      }
+      instructions[i] = instruction;
+    }
+    return new ColumnEvaluator(instructions, columns, columnNames.length());
+  }
+
+  /**
+   * Evaluate the program for every row of the input columns.
+   *
+   * @param columns The input columns, in the order of the column names given when the program was
+   *     compiled, each with at least as many rows as the results
+   * @param results The array the result of each row is written to
+   * @param status The array the status of each row is written to
+   */
+  public void evaluate(int[][] columns, int[] results, byte[] status) {
+    int rows = results.length;
+    if (columns.length != this.columnCount || status.length < rows) {
+      throw new IllegalArgumentException("Expected " + this.columnCount + " columns");
+    }
+    for (int[] column : columns) {
+      if (column.length < rows) {
+        throw new IllegalArgumentException("Column shorter than results");
+      }
+    }
+    int[][] registers = new int[SRPN.MAX_STACK_SIZE][BLOCK_SIZE];
+    boolean[] divideByZero = new boolean[BLOCK_SIZE];
+    Fallback fallback = null;
+    for (int start = 0; start < rows; start += BLOCK_SIZE) {
+      int count = Math.min(BLOCK_SIZE, rows - start);
+      Arrays.fill(divideByZero, false);
+      int depth = this.evaluateBlock(columns, start, count, registers, divideByZero);
+      for (int i = 0; i < count; i++) {
+        if (divideByZero[i]) {
+          if (fallback == null) {
+            fallback = new Fallback();
+          }
+          fallback.evaluate(this, columns, start + i, results, status);
+        } else {
+          results[start + i] = depth > 0 ? registers[depth - 1][i] : 0;
+          status[start + i] = this.status;
+        }
+      }
+    }
+  }
+
+  /**
+   * Evaluate the program for a block of rows, one instruction at a time.
+   *
+   * @param columns The input columns
+   * @param start The index of the first row of the block
+   * @param count The number of rows in the block
+   * @param registers The stack of values for each row, one array per level of the stack
+   * @param divideByZero The array marking the rows that divided by 0
+   * @return the depth of the stack at the end of the program
+   */
+  private int evaluateBlock(int[][] columns, int start, int count, int[][] registers,
+      boolean[] divideByZero) {
+    int depth = 0;
+    for (int p = 0; p < this.instructions.length; p++) {
+      if (this.skipped[p]) {
+        continue;
+      }
+      Instruction instruction = this.instructions[p];
+      if (instruction.kind == Instruction.Kind.PUSH) {
+        if (this.columns[p] >= 0) {
+          System.arraycopy(columns[this.columns[p]], start, registers[depth], 0, count);
+        } else {
+          Arrays.fill(registers[depth], 0, count, instruction.operand);
+        }
+        depth++;
+        continue;
+      }
+      if (instruction.operands() != 2) {
+        // = and d only produce output
+        continue;
+      }
+      int[] a = registers[depth - 2];
+      int[] b = registers[depth - 1];
+      switch (instruction.opcode()) {
+        case ADD:
+          if (VectorKernels.AVAILABLE) {
+            VectorKernels.add(a, b, count);
+            break;
+          }
+          for (int i = 0; i < count; i++) {
+            a[i] = SRPN.saturate((long) a[i] + b[i]);
+          }
+          break;
+
+        case SUBTRACT:
+          if (VectorKernels.AVAILABLE) {
+            VectorKernels.subtract(a, b, count);
+            break;
+          }
+          for (int i = 0; i < count; i++) {
+            a[i] = SRPN.saturate((long) a[i] - b[i]);
+          }
+          break;
+
+        case MULTIPLY:
+          if (VectorKernels.AVAILABLE) {
+            VectorKernels.multiply(a, b, count);
+            break;
+          }
+          for (int i = 0; i < count; i++) {
+            a[i] = SRPN.saturate((long) a[i] * b[i]);
+          }
+          break;
+
+        case DIVIDE:
+          for (int i = 0; i < count; i++) {
+            int divisor = b[i];
+            divideByZero[i] |= divisor == 0;
+            a[i] = divisor == 0 ? 0 : SRPN.saturate((long) a[i] / divisor);
+          }
+          break;
+
+        case MOD:
+          for (int i = 0; i < count; i++) {
+            int divisor = b[i];
+            divideByZero[i] |= divisor == 0;
+            a[i] = divisor == 0 ? 0 : a[i] % divisor;
+          }
+          break;
+
+        case POWER:
+          for (int i = 0; i < count; i++) {
+            a[i] = SRPN.saturate(IntMath.power(a[i], b[i]));
+          }
+          break;
+
+        default:
+          throw new IllegalStateException("Unexpected opcode " + instruction.opcode());
+      }
+      depth--;
+    }
+    return depth;
+  }
+
+  /**
+   * Fallback evaluates single rows with a headless {@link SRPN}, listening for its errors.
+   */
+  private static final class Fallback implements SrpnListener {
+
+    /**
+     * The calculator used to evaluate rows.
+     */
+    private final SRPN srpn = new SRPN(this, new ProgramCache(1), new LegacyRandomSource());
+
+    /**
+     * The status of the first error output while evaluating the current row.
+     */
+    private byte status = OK;
+
+    /**
+     * Evaluate one row of the input columns.
+     *
+     * @param evaluator The evaluator whose program is run
+     * @param columns The input columns
+     * @param row The index of the row to be evaluated
+     * @param results The array the result of the row is written to
+     * @param status The array the status of the row is written to
+     */
+    void evaluate(ColumnEvaluator evaluator, int[][] columns, int row, int[] results,
+        byte[] status) {
+      Instruction[] instructions = evaluator.instructions.clone();
+      for (int i = 0; i < instructions.length; i++) {
+        if (evaluator.columns[i] >= 0) {
+          instructions[i] = Instruction.push(columns[evaluator.columns[i]][row]);
+        }
+      }
+      this.srpn.reset();
+      this.status = OK;
+      try {
+        this.srpn.execute(new Program("", instructions));
+      } catch (ArithmeticException e) {
+        results[row] = 0;
+        status[row] = this.status != OK ? this.status : MOD_BY_ZERO;
+        return;
+      }
+      IntStack stack = this.srpn.stack();
+      results[row] = stack.isEmpty() ? 0 : stack.peek();
+      status[row] = this.status != OK ? this.status : stack.isEmpty() ? STACK_EMPTY : OK;
+    }
+
+    @Override
+    public void onResult(int value) {
+    }
+
+    @Override
+    public void onDisplay(int[] stack, int depth) {
+    }
+
+    @Override
+    public void onError(ErrorCode error) {
+      if (this.status == OK) {
+        switch (error) {
+          case STACK_UNDERFLOW:
+            this.status = STACK_UNDERFLOW;
+            break;
+          case STACK_OVERFLOW:
+            this.status = STACK_OVERFLOW;
+            break;
+          case DIVIDE_BY_ZERO:
+            this.status = DIVIDE_BY_ZERO;
+            break;
+          default:
+            break;
+        }
+      }
+    }
+  }
+}
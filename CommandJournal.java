@@ -0,0 +1,343 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommandJournal is a write-ahead log of the commands processed by an {@link SRPN} session, so
+ * that the session can be rebuilt after a restart by replaying them.
+ * <p>
+ * Each record is a 4 byte length, a 1 byte type and the payload. A journal starts with a
+ * {@link Snapshot} of its session, followed by every command passed to
+ * {@link SRPN#processCommand(String)} as UTF-8 before it is executed. Replaying a journal into a
+ * fresh calculator restores the snapshot and processes the commands again, which leaves the stack
+ * and the position of the randoms exactly as they were.
+ * <p>
+ * Opening a journal replays it once to resume its session, then compacts it: the file is replaced
+ * by a single snapshot of the resumed session, so it only grows with the commands of the current
+ * run.
+ * <p>
+ * Records are collected in a buffer and group committed: written to the file and forced to disk
+ * together, once the buffer holds a given number of bytes or, optionally, at a fixed interval. A
+ * command is only durable once the commit following it has completed. A record left incomplete by
+ * a crash is discarded when the journal is opened or replayed, as is a tail of zeros, which a crash
+ * can leave when the file was extended before its data reached the disk.
+ */
+public final class CommandJournal implements Closeable {
+
+  /**
+   * The type of a record holding a snapshot of a session.
+   */
+  private static final byte SNAPSHOT = 1;
+
+  /**
+   * The type of a record holding a command.
+   */
+  private static final byte COMMAND = 2;
+
+  /**
+   * The number of bytes before the payload of each record.
+   */
+  private static final int HEADER_SIZE = Integer.BYTES + 1;
+
+  /**
+   * The file the journal is written to.
+   */
+  private final FileChannel channel;
+
+  /**
+   * The records waiting to be committed.
+   */
+  private final ByteBuffer pending;
+
+  /**
+   * The number of pending bytes that triggers a commit.
+   */
+  private final int commitBytes;
+
+  /**
+   * The scheduler committing the journal at a fixed interval, or null if it only commits by size.
+   */
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * The time taken to force each commit to disk.
+   */
+  private final LatencyHistogram fsyncLatency = new LatencyHistogram();
+
+  /**
+   * The time the journal was opened, from {@link System#nanoTime()}.
+   */
+  private final long startTime = System.nanoTime();
+
+  /**
+   * The number of commands recorded.
+   */
+  private long commands = 0;
+
+  /**
+   * The number of bytes committed.
+   */
+  private long bytes = 0;
+
+  /**
+   * The number of commits.
+   */
+  private long commits = 0;
+
+  /**
+   * Open a journal, creating it if it does not exist, and record the commands processed by a
+   * session from now on.
+   * <p>
+   * If the journal exists, it is replayed silently into a separate session, whose state is copied
+   * to the given session. The journal is then compacted to a snapshot of the session, which also
+   * discards a record left incomplete by a crash.
+   *
+   * @param path The file the journal is written to
+   * @param srpn The session to be resumed and journaled
+   * @param commitBytes The number of pending bytes that triggers a commit
+   * @param commitMillis The number of milliseconds between commits, or 0 to commit only by size
+   * @throws IOException if the journal could not be read or could not be compacted
+   */
+  public CommandJournal(Path path, SRPN srpn, int commitBytes, long commitMillis)
+      throws IOException {
+    if (commitBytes < 1) {
+      throw new IllegalArgumentException("Commit size must be at least 1 byte");
+    }
+    if (Files.exists(path)) {
+      SRPN replayed = new SRPN(NullOutputSink.INSTANCE);
+      replay(path, replayed);
+      ByteBuffer state = ByteBuffer.allocate(Snapshot.SIZE);
+      Snapshot.save(replayed, state);
+      state.flip();
+      Snapshot.restore(srpn, state);
+    }
+    compact(path, srpn);
+    this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    this.channel.position(this.channel.size());
+    this.commitBytes = commitBytes;
+    this.pending = ByteBuffer.allocateDirect(Math.max(commitBytes, 1 << 12));
+    if (commitMillis > 0) {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "srpn-journal");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.scheduler.scheduleAtFixedRate(() -> {
+        try {
+          this.commit();
+        } catch (IOException e) {
+          System.err.println("Journal commit failed: " + e.getMessage());
+        }
+      }, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+    } else {
+      this.scheduler = null;
+    }
+    srpn.setJournal(this);
+  }
+
+  /**
+   * Record a command before it is processed.
+   *
+   * @param command The command to be recorded
+   * @throws UncheckedIOException if a commit was needed and failed
+   */
+  synchronized void record(String command) {
+    this.append(COMMAND, command.getBytes(StandardCharsets.UTF_8));
+    this.commands++;
+  }
+
+  /**
+   * Write all pending records to the file and force them to disk.
+   *
+   * @throws IOException if the records could not be written
+   */
+  public synchronized void commit() throws IOException {
+    if (this.pending.position() == 0) {
+      return;
+    }
+    this.pending.flip();
+    this.write(this.pending);
+    this.pending.clear();
+  }
+
+  /**
+   * Get the histogram of the time taken to force each commit to disk.
+   *
+   * @return the fsync latency histogram
+   */
+  public LatencyHistogram fsyncLatency() {
+    return this.fsyncLatency;
+  }
+
+  /**
+   * Describe the throughput of the journal.
+   *
+   * @return the number of commands, bytes and commits, and the rate of commands and fsync latency
+   */
+  public synchronized String metrics() {
+    double seconds = (System.nanoTime() - this.startTime) / 1e9;
+    return String.format("commands=%d commands/s=%.0f bytes=%d commits=%d fsync %s",
+        this.commands, this.commands / seconds, this.bytes, this.commits, this.fsyncLatency);
+  }
+
+  /**
+   * Commit all pending records and close the journal.
+   *
+   * @throws IOException if the records could not be written or the file could not be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+    }
+    try {
+      this.commit();
+    } finally {
+      this.channel.close();
+    }
+  }
+
+  /**
+   * Replay a journal into a calculator, restoring each snapshot and processing each command.
+   * <p>
+   * Output is written to the calculator's sink as usual, so a calculator with a
+   * {@link NullOutputSink} is normally used. A command that throws, such as a modulo by 0, is
+   * recorded before it throws, and is replayed to the same point.
+   *
+   * @param path The journal to be replayed
+   * @param srpn The calculator the journal is replayed into, or null to only validate the journal
+   * @return the length of the journal up to the end of its last complete record
+   * @throws IOException if the journal could not be read
+   */
+  public static long replay(Path path, SRPN srpn) throws IOException {
+    long size = Files.size(path);
+    long valid = 0;
+    try (InputStream stream = Files.newInputStream(path)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+      byte[] payload = new byte[256];
+      while (true) {
+        int length;
+        byte type;
+        try {
+          length = in.readInt();
+          type = in.readByte();
+          if (type != SNAPSHOT && type != COMMAND || length < 0
+              || length > size - valid - HEADER_SIZE) {
+            // a header that is invalid, such as one of zeros, or whose length runs beyond the end
+            // of the file is the start of a tail left incomplete by a crash, and is not allocated
+            return valid;
+          }
+          if (payload.length < length) {
+            payload = new byte[Math.max(length, payload.length * 2)];
+          }
+          in.readFully(payload, 0, length);
+        } catch (EOFException e) {
+          // the journal ends with an incomplete record, or none at all
+          return valid;
+        }
+        if (srpn != null && type == SNAPSHOT) {
+          Snapshot.restore(srpn, ByteBuffer.wrap(payload, 0, length));
+        } else if (srpn != null) {
+          try {
+            srpn.processCommand(new String(payload, 0, length, StandardCharsets.UTF_8));
+          } catch (ArithmeticException e) {
+            // the command threw when it was first processed, at the same point
+          }
+        }
+        valid += HEADER_SIZE + length;
+      }
+    }
+  }
+
+  /**
+   * Replace a journal with a single snapshot of its session. The snapshot is written to a
+   * temporary file, which is forced to disk before it is moved over the journal, and the directory
+   * is forced after the move, so a crash leaves either the old journal or the new one.
+   *
+   * @param path The journal
+   * @param srpn The session recorded by the journal
+   * @throws IOException if the snapshot could not be written or moved
+   */
+  private static void compact(Path path, SRPN srpn) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + Snapshot.SIZE);
+    record.putInt(Snapshot.SIZE).put(SNAPSHOT);
+    Snapshot.save(srpn, record);
+    record.flip();
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (record.hasRemaining()) {
+        out.write(record);
+      }
+      out.force(false);
+    }
+    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    try (FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(),
+        StandardOpenOption.READ)) {
+      directory.force(true);
+    } catch (IOException e) {
+      // a platform that cannot open a directory, such as Windows, makes the rename durable itself
+    }
+  }
+
+  /**
+   * Add a record to the pending records, committing first if there is no room for it and after if
+   * the commit size has been reached.
+   *
+   * @param type The type of the record
+   * @param payload The content of the record
+   */
+  private void append(byte type, byte[] payload) {
+    try {
+      int size = HEADER_SIZE + payload.length;
+      if (this.pending.remaining() < size) {
+        this.commit();
+      }
+      if (this.pending.remaining() < size) {
+        // a record larger than the buffer is committed on its own
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(payload.length).put(type).put(payload).flip();
+        this.write(record);
+        return;
+      }
+      this.pending.putInt(payload.length).put(type).put(payload);
+      if (this.pending.position() >= this.commitBytes) {
+        this.commit();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write records to the file and force them to disk as a single commit.
+   *
+   * @param records The records to be written, from their position to their limit
+   * @throws IOException if the records could not be written
+   */
+  private void write(ByteBuffer records) throws IOException {
+    this.bytes += records.remaining();
+    while (records.hasRemaining()) {
+      this.channel.write(records);
+    }
+    long start = System.nanoTime();
+    this.channel.force(false);
+    this.fsyncLatency.record(System.nanoTime() - start);
+    this.commits++;
+  }
+}
@@ -0,0 +1,23 @@
+/**
+ * CompiledLine is implemented by the hidden classes generated by {@link LineCompiler}, each running
+ * the straight-line bytecode of a single {@link Program}.
+ * <p>
+ * The code reads and writes the elements of the stack directly, at fixed offsets from the depth of
+ * the stack when it starts, so the caller must check that the program can neither underflow nor
+ * overflow the stack before running it, and must set the size of the stack afterwards.
+ *
+ * @see CompiledProgram
+ */
+interface CompiledLine {
+
+  /**
+   * Run the program against the elements of a stack.
+   *
+   * @param elements The array backing the stack
+   * @param base The number of elements on the stack before the program is run
+   * @param listener The listener that results, errors and displayed stacks are reported to
+   * @param randoms The source of the numbers generated by the r operator
+   * @throws LineCompiler.Deoptimization if the program must continue in the interpreter
+   */
+  void run(int[] elements, int base, SrpnListener listener, RandomSource randoms);
+}
@@ -0,0 +1,80 @@
+/**
+ * CompiledProgram is a {@link Program} compiled to bytecode, with the stack requirements under
+ * which the bytecode behaves exactly like the interpreter.
+ * <p>
+ * The depth of the stack at every instruction is fixed relative to the depth it starts at, so a
+ * program can be checked once before it runs: it must find enough values on the stack for every
+ * operator, and room for every value it pushes. When either check fails the program is left to the
+ * interpreter, which reports the errors. A division or modulo division by 0 stops the bytecode just
+ * before the operator, and the interpreter continues from there.
+ *
+ * @see LineCompiler
+ */
+final class CompiledProgram {
+
+  /**
+   * The generated code of the program.
+   */
+  private final CompiledLine line;
+
+  /**
+   * The number of instructions in the program.
+   */
+  private final int size;
+
+  /**
+   * The number of values that must be on the stack before the program runs.
+   */
+  private final int required;
+
+  /**
+   * The largest number of values the program holds on the stack above the depth it starts at.
+   */
+  private final int headroom;
+
+  /**
+   * The depth of the stack before each instruction, and after the last, relative to the depth the
+   * program starts at.
+   */
+  private final int[] depths;
+
+  /**
+   * Create a compiled program.
+   *
+   * @param line The generated code of the program
+   * @param required The number of values that must be on the stack before the program runs
+   * @param headroom The largest number of values the program holds on the stack at once
+   * @param depths The relative depth of the stack before each instruction and after the last
+   */
+  CompiledProgram(CompiledLine line, int required, int headroom, int[] depths) {
+    this.line = line;
+    this.size = depths.length - 1;
+    this.required = required;
+    this.headroom = headroom;
+    this.depths = depths;
+  }
+
+  /**
+   * Run the program if the stack meets its requirements.
+   *
+   * @param stack The stack of the calculator the program is run for
+   * @param listener The listener that results, errors and displayed stacks are reported to
+   * @param randoms The source of the numbers generated by the r operator
+   * @return the index of the instruction the interpreter must continue from, which is the size of
+   *     the program if it ran to the end
+   */
+  int run(IntStack stack, SrpnListener listener, RandomSource randoms) {
+    int base = stack.size();
+    if (base < this.required || base + this.headroom > stack.capacity()) {
+      return 0;
+    }
+    try {
+      this.line.run(stack.array(), base, listener, randoms);
+    } catch (LineCompiler.Deoptimization e) {
+      stack.resize(base + this.depths[e.index]);
+      return e.index;
+    }
+    stack.resize(base + this.depths[this.size]);
+    return this.size;
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * ConsoleListener formats the events of a calculator as the lines of output of the legacy program,
+ * and writes them to an {@link OutputSink}.
+ */
+public final class ConsoleListener implements SrpnListener {
+
+  /**
+   * The sink that output is written to.
+   */
+  private final OutputSink out;
+
+  /**
+   * Create a listener writing to a given sink.
+   *
+   * @param out The sink that output is written to
+   */
+  public ConsoleListener(OutputSink out) {
+    this.out = out;
+  }
+
+  @Override
+  public void onResult(int value) {
+    this.out.println(value);
+  }
+
+  @Override
+  public void onDisplay(int[] stack, int depth) {
+    if (depth == 0) {
+      // the legacy program displays an empty stack as the minimum value of an Integer
+      this.out.println(Integer.MIN_VALUE);
+    }
+    for (int i = 0; i < depth; i++) {
+      this.out.println(stack[i]);
+    }
+  }
+
+  @Override
+  public void onError(ErrorCode error) {
+    this.out.println(error.message);
+  }
+
+  @Override
+  public void onUnrecognised(CharSequence token) {
+    this.out.println(String.format(ErrorCode.UNRECOGNISED.message, token));
+  }
+
+  /**
+   * Get the sink that output is written to.
+   *
+   * @return the output sink of this listener
+   */
+  public OutputSink out() {
+    return this.out;
+  }
+}
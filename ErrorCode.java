@@ -0,0 +1,20 @@
+/**
+ * ErrorCode enumerates the errors reported by {@link SRPN}.
+ */
+public enum ErrorCode {
+  STACK_UNDERFLOW("Stack underflow."),
+  STACK_OVERFLOW("Stack overflow."),
+  DIVIDE_BY_ZERO("Divide by 0."),
+  STACK_EMPTY("Stack empty."),
+  UNRECOGNISED("Unrecognised operator or operand \"%s\".");
+
+  /**
+   * The message displayed for the error, matching the legacy program. The message of
+   * {@link #UNRECOGNISED} is a format for the unrecognised token.
+   */
+  final String message;
+
+  ErrorCode(String message) {
+    this.message = message;
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * ExecutionObserver is notified of the work done by an {@link SRPN}, for instrumentation.
+ * <p>
+ * Calculators only notify an observer once one has been set, so instrumentation costs nothing when
+ * it is not in use. While one is set, a calculator interprets every line so that no event is
+ * skipped, which costs more than the events themselves for lines that would otherwise be compiled
+ * (see {@link SRPN#setObserver(ExecutionObserver)}). Observers may be shared between calculators
+ * running on different threads.
+ *
+ * @see SRPN#setObserver(ExecutionObserver)
+ */
+public interface ExecutionObserver {
+
+  /**
+   * Called when an operator is executed, whether or not it succeeds.
+   *
+   * @param opcode The operator executed
+   */
+  void onOperator(Opcode opcode);
+
+  /**
+   * Called when an error is reported.
+   *
+   * @param error The error reported
+   */
+  void onError(ErrorCode error);
+
+  /**
+   * Called when a line of input has been processed.
+   *
+   * @param nanos The time taken to process the line, in nanoseconds
+   */
+  void onLine(long nanos);
+
+  /**
+   * Called after each operand or operator has been processed.
+   *
+   * @param depth The number of values on the stack
+   */
+  default void onDepth(int depth) {
+  }
+
+  /**
+   * Called when the result of an operator is saturated to the limits of an Integer.
+   *
+   * @param opcode The operator whose result was saturated
+   * @param maximum true if the result was clamped to Integer.MAX_VALUE, false if it was clamped to
+   *     Integer.MIN_VALUE
+   */
+  default void onSaturation(Opcode opcode, boolean maximum) {
+  }
+
+  /**
+   * Combine several observers into one that notifies each in turn.
+   *
+   * @param observers The observers to be notified
+   * @return an observer notifying all of the given observers
+   */
+  static ExecutionObserver of(ExecutionObserver... observers) {
+    ExecutionObserver[] all = observers.clone();
+    return new ExecutionObserver() {
+      @Override
+      public void onOperator(Opcode opcode) {
+        for (ExecutionObserver observer : all) {
+          observer.onOperator(opcode);
+        }
+      }
+
+      @Override
+      public void onError(ErrorCode error) {
+        for (ExecutionObserver observer : all) {
+          observer.onError(error);
+        }
+      }
+
+      @Override
+      public void onLine(long nanos) {
+        for (ExecutionObserver observer : all) {
+          observer.onLine(nanos);
+        }
+      }
+
+      @Override
+      public void onDepth(int depth) {
+        for (ExecutionObserver observer : all) {
+          observer.onDepth(depth);
+        }
+      }
+
+      @Override
+      public void onSaturation(Opcode opcode, boolean maximum) {
+        for (ExecutionObserver observer : all) {
+          observer.onSaturation(opcode, maximum);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * GlibcRandomSource is an exact reimplementation of the glibc random() generator, which produced
+ * the list of randoms used by the legacy program.
+ * <p>
+ * With the default seed of 1 the first 22 values match {@link LegacyRandomSource}, but the
+ * sequence continues instead of repeating. The generator is the additive feedback generator used by
+ * glibc (r[i] = r[i - 3] + r[i - 31]), so the value at any position can be calculated in
+ * logarithmic time by raising x to that position modulo the characteristic polynomial
+ * x^31 - x^28 - 1.
+ */
+public final class GlibcRandomSource implements RandomSource {
+
+  /**
+   * The number of values of state kept by the generator.
+   */
+  private static final int DEGREE = 31;
+
+  /**
+   * The distance between the two values of state added together.
+   */
+  private static final int SEPARATION = 3;
+
+  /**
+   * The number of values discarded by glibc after seeding, before the first value is returned.
+   */
+  private static final int DISCARDED = 310;
+
+  /**
+   * The values r[3] to r[33] of the seeded state, from which every later value is calculated.
+   */
+  private final int[] base = new int[DEGREE];
+
+  /**
+   * The last 31 values of state, used to step through the sequence one value at a time.
+   */
+  private final int[] window = new int[DEGREE];
+
+  /**
+   * The index in the window of the oldest value of state.
+   */
+  private int head = 0;
+
+  /**
+   * The number of values taken from the sequence so far.
+   */
+  private long position = 0;
+
+  /**
+   * Create a generator seeded as by srandom(1), the state glibc starts in.
+   */
+  public GlibcRandomSource() {
+    this(1);
+  }
+
+  /**
+   * Create a generator seeded as by srandom(seed).
+   *
+   * @param seed The seed of the generator
+   */
+  public GlibcRandomSource(int seed) {
+    int[] state = new int[DEGREE + SEPARATION];
+    state[0] = seed == 0 ? 1 : seed;
+    for (int i = 1; i < DEGREE; i++) {
+      // state[i] = (16807 * state[i - 1]) % 2147483647 without overflowing 31 bits
+      int hi = state[i - 1] / 127773;
+      int lo = state[i - 1] % 127773;
+      int word = 16807 * lo - 2836 * hi;
+      state[i] = word < 0 ? word + 2147483647 : word;
+    }
+    for (int i = DEGREE; i < DEGREE + SEPARATION; i++) {
+      state[i] = state[i - DEGREE];
+    }
+    System.arraycopy(state, SEPARATION, this.base, 0, DEGREE);
+    this.seek(0);
+  }
+
+  @Override
+  public int next() {
+    int value = this.window[this.head] + this.window[(this.head + DEGREE - SEPARATION) % DEGREE];
+    this.window[this.head] = value;
+    this.head = (this.head + 1) % DEGREE;
+    this.position++;
+    return value >>> 1;
+  }
+
+  @Override
+  public long position() {
+    return this.position;
+  }
+
+  @Override
+  public void seek(long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("Position must not be negative");
+    }
+    // the window holds the 31 values of state before the one that produces the value at position
+    int[] polynomial = power(DISCARDED + position);
+    for (int i = 0; i < DEGREE; i++) {
+      this.window[i] = this.evaluate(polynomial);
+      polynomial = multiplyByX(polynomial);
+    }
+    this.head = 0;
+    this.position = position;
+  }
+
+  @Override
+  public int valueAt(long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("Position must not be negative");
+    }
+    return this.evaluate(power(DISCARDED + DEGREE + position)) >>> 1;
+  }
+
+  /**
+   * Calculate a value of state from the seeded state.
+   *
+   * @param polynomial The coefficients of x^n modulo the characteristic polynomial
+   * @return the value of state r[3 + n]
+   */
+  private int evaluate(int[] polynomial) {
+    int value = 0;
+    for (int i = 0; i < DEGREE; i++) {
+      value += polynomial[i] * this.base[i];
+    }
+    return value;
+  }
+
+  /**
+   * Raise x to a power modulo the characteristic polynomial, by repeated squaring.
+   *
+   * @param exponent The power to raise x to
+   * @return the coefficients of the result, with arithmetic modulo 2^32
+   */
+  private static int[] power(long exponent) {
+    int[] result = new int[DEGREE];
+    result[0] = 1;
+    for (int bit = 63 - Long.numberOfLeadingZeros(exponent); bit >= 0; bit--) {
+      result = multiply(result, result);
+      if ((exponent >>> bit & 1) != 0) {
+        result = multiplyByX(result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Multiply two polynomials modulo the characteristic polynomial.
+   *
+   * @param a The coefficients of the first polynomial
+   * @param b The coefficients of the second polynomial
+   * @return the coefficients of the product
+   */
+  private static int[] multiply(int[] a, int[] b) {
+    int[] product = new int[2 * DEGREE - 1];
+    for (int i = 0; i < DEGREE; i++) {
+      if (a[i] != 0) {
+        for (int j = 0; j < DEGREE; j++) {
+          product[i + j] += a[i] * b[j];
+        }
+      }
+    }
+    // reduce using x^31 = x^28 + 1
+    for (int i = product.length - 1; i >= DEGREE; i--) {
+      product[i - SEPARATION] += product[i];
+      product[i - DEGREE] += product[i];
+    }
+    return java.util.Arrays.copyOf(product, DEGREE);
+  }
+
+  /**
+   * Multiply a polynomial by x modulo the characteristic polynomial.
+   *
+   * @param a The coefficients of the polynomial
+   * @return the coefficients of the product
+   */
+  private static int[] multiplyByX(int[] a) {
+    int[] product = new int[DEGREE];
+    System.arraycopy(a, 0, product, 1, DEGREE - 1);
+    // reduce using x^31 = x^28 + 1
+    product[DEGREE - SEPARATION] += a[DEGREE - 1];
+    product[0] += a[DEGREE - 1];
+    return product;
+  }
+}
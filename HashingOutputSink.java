@@ -0,0 +1,96 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HashingOutputSink reduces all output to a single 64-bit FNV-1a hash, so that the output of a long
+ * run can be compared with another without being stored.
+ * <p>
+ * The hash is taken over the UTF-8 encoding of the output with each line ended by a '\n', so it is
+ * the same as the hash of a file holding the output on a platform with that line separator.
+ * Numbers are hashed as they are formatted, without creating a String.
+ */
+public final class HashingOutputSink implements OutputSink {
+
+  /**
+   * The starting value of a 64-bit FNV-1a hash.
+   */
+  private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  /**
+   * The multiplier of a 64-bit FNV-1a hash.
+   */
+  private static final long PRIME = 0x100000001b3L;
+
+  /**
+   * The characters of the number being hashed, from the end.
+   */
+  private final byte[] digits = new byte[11];
+
+  /**
+   * The hash of the output so far.
+   */
+  private long hash = OFFSET_BASIS;
+
+  /**
+   * The number of lines output so far.
+   */
+  private long lines = 0;
+
+  @Override
+  public void println(int value) {
+    int index = this.digits.length;
+    long remaining = Math.abs((long) value);
+    do {
+      this.digits[--index] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    } while (remaining != 0);
+    if (value < 0) {
+      this.digits[--index] = '-';
+    }
+    long hash = this.hash;
+    for (int i = index; i < this.digits.length; i++) {
+      hash = (hash ^ this.digits[i]) * PRIME;
+    }
+    this.hash = (hash ^ '\n') * PRIME;
+    this.lines++;
+  }
+
+  @Override
+  public void println(String line) {
+    long hash = this.hash;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c >= 0x80) {
+        // hash the rest of the line in its UTF-8 encoding
+        for (byte b : line.substring(i).getBytes(StandardCharsets.UTF_8)) {
+          hash = (hash ^ (b & 0xff)) * PRIME;
+        }
+        break;
+      }
+      hash = (hash ^ c) * PRIME;
+    }
+    this.hash = (hash ^ '\n') * PRIME;
+    this.lines++;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  /**
+   * Get the hash of the output so far.
+   *
+   * @return the FNV-1a hash of the output
+   */
+  public long hash() {
+    return this.hash;
+  }
+
+  /**
+   * Get the number of lines output so far.
+   *
+   * @return the number of lines hashed
+   */
+  public long lines() {
+    return this.lines;
+  }
+}
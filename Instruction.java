@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+/**
+ * Instruction is a single step of a compiled {@link Program}.
+ * <p>
+ * An instruction either pushes a literal operand, executes a resolved operator, reports a token
+ * that was not recognised, or pushes the result of a sequence of instructions folded by the
+ * {@link Optimizer}. Instructions are immutable and may be shared between programs.
+ */
+final class Instruction {
+
+  /**
+   * The kinds of instruction that can appear in a program.
+   */
+  enum Kind {
+    PUSH,
+    OPERATOR,
+    UNRECOGNISED,
+    FOLDED
+  }
+
+  /**
+   * The kind of this instruction.
+   */
+  final Kind kind;
+
+  /**
+   * The literal value pushed by a {@link Kind#PUSH} instruction, or the result pushed by a
+   * {@link Kind#FOLDED} instruction.
+   */
+  final int operand;
+
+  /**
+   * The resolved code of an {@link Kind#OPERATOR} instruction.
+   *
+   * @see Opcode#resolve(CharSequence)
+   */
+  final int code;
+
+  /**
+   * The token reported by an {@link Kind#UNRECOGNISED} instruction.
+   */
+  final String text;
+
+  /**
+   * The largest number of values a {@link Kind#FOLDED} instruction's original sequence holds on the
+   * stack above the depth it started at.
+   */
+  final int headroom;
+
+  /**
+   * The original sequence of a {@link Kind#FOLDED} instruction, made up of pushes and operators.
+   */
+  final Instruction[] folded;
+
+  private Instruction(Kind kind, int operand, int code, String text, int headroom,
+      Instruction[] folded) {
+    this.kind = kind;
+    this.operand = operand;
+    this.code = code;
+    this.text = text;
+    this.headroom = headroom;
+    this.folded = folded;
+  }
+
+  /**
+   * Create an instruction that pushes a literal operand.
+   *
+   * @param operand The value to be pushed
+   * @return a new push instruction
+   */
+  static Instruction push(int operand) {
+    return new Instruction(Kind.PUSH, operand, Opcode.UNRECOGNISED, null, 1, null);
+  }
+
+  /**
+   * Create an instruction that executes an operator.
+   *
+   * @param code The resolved code of the operator
+   * @return a new operator instruction
+   */
+  static Instruction operator(int code) {
+    return new Instruction(Kind.OPERATOR, 0, code, null, 0, null);
+  }
+
+  /**
+   * Create an instruction that reports a token that was not recognised.
+   *
+   * @param text The token that was not recognised
+   * @return a new unrecognised token instruction
+   */
+  static Instruction unrecognised(String text) {
+    return new Instruction(Kind.UNRECOGNISED, 0, Opcode.UNRECOGNISED, text, 0, null);
+  }
+
+  /**
+   * Create an instruction that pushes the result of a sequence of literals and operators.
+   *
+   * @param result The value the sequence leaves on the stack
+   * @param headroom The largest number of values the sequence holds on the stack at once
+   * @param folded The pushes and operators of the sequence, which must not be modified afterwards
+   * @return a new folded instruction
+   */
+  static Instruction folded(int result, int headroom, Instruction[] folded) {
+    return new Instruction(Kind.FOLDED, result, Opcode.UNRECOGNISED, null, headroom, folded);
+  }
+
+  /**
+   * Get the opcode executed by an operator instruction.
+   *
+   * @return the opcode of this instruction, or null if it is not an operator
+   */
+  Opcode opcode() {
+    return this.kind == Kind.OPERATOR ? Opcode.VALUES[this.code >> 1] : null;
+  }
+
+  /**
+   * Get the number of values this instruction needs on the stack.
+   *
+   * @return the number of operands taken from the stack
+   */
+  int operands() {
+    return this.kind == Kind.OPERATOR ? this.opcode().operands : 0;
+  }
+
+  /**
+   * Get the number of values this instruction adds to the stack when it succeeds.
+   *
+   * @return the number of results pushed onto the stack
+   */
+  int results() {
+    switch (this.kind) {
+      case PUSH:
+      case FOLDED:
+        return 1;
+      case OPERATOR:
+        return this.opcode().results;
+      default:
+        return 0;
+    }
+  }
+
+  @Override
+  public String toString() {
+    switch (this.kind) {
+      case PUSH:
+        return "PUSH " + this.operand;
+      case OPERATOR:
+        return this.opcode() + ((this.code & Opcode.PRINT) != 0 ? " PRINT" : "");
+      case FOLDED:
+        return "FOLDED " + this.operand + " " + Arrays.toString(this.folded);
+      default:
+        return "UNRECOGNISED \"" + this.text + "\"";
+    }
+  }
+}
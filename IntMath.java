@@ -0,0 +1,101 @@
+/**
+ * IntMath provides integer arithmetic kernels for {@link SRPN} that avoid floating point.
+ */
+final class IntMath {
+
+  /**
+   * The magnitude beyond which a result can only saturate, as 2^31 is the magnitude of
+   * Integer.MIN_VALUE.
+   */
+  private static final long LIMIT = 1L << 31;
+
+  /**
+   * The largest magnitude of base held in the table of small powers.
+   */
+  private static final int SMALL_BASE = 16;
+
+  /**
+   * The number of exponents held in the table of small powers. Any larger exponent of a base other
+   * than -1, 0 or 1 saturates.
+   */
+  private static final int SMALL_EXPONENTS = 32;
+
+  /**
+   * The powers of the bases -16 to 16 for the exponents 0 to 31, indexed by base + 16 and then by
+   * exponent.
+   */
+  private static final long[][] SMALL_POWERS = new long[2 * SMALL_BASE + 1][SMALL_EXPONENTS];
+
+  static {
+    for (int base = -SMALL_BASE; base <= SMALL_BASE; base++) {
+      for (int exponent = 0; exponent < SMALL_EXPONENTS; exponent++) {
+        SMALL_POWERS[base + SMALL_BASE][exponent] = powerBySquaring(base, exponent);
+      }
+    }
+  }
+
+  private IntMath() {
+  }
+
+  /**
+   * Raise a base to an exponent, for saturation against Integer limits.
+   * <p>
+   * Results within the limits of an Integer are exact. Results beyond them are not calculated in
+   * full: a value just beyond the limit with the correct sign is returned as soon as the result is
+   * known to saturate. Negative exponents match the legacy program, which used floating point: the
+   * fractional result is truncated towards 0, and 0 raised to a negative exponent saturates to the
+   * maximum.
+   *
+   * @param base The base value that will be raised to an exponent
+   * @param exponent The exponent the base will be raised to
+   * @return the result, or a value beyond the limits of an Integer with the sign of the result
+   */
+  static long power(int base, int exponent) {
+    if (base >= -SMALL_BASE && base <= SMALL_BASE && exponent >= 0
+        && exponent < SMALL_EXPONENTS) {
+      return SMALL_POWERS[base + SMALL_BASE][exponent];
+    }
+    return powerBySquaring(base, exponent);
+  }
+
+  /**
+   * Raise a base to an exponent by repeated squaring, stopping as soon as the result saturates.
+   *
+   * @param base The base value that will be raised to an exponent
+   * @param exponent The exponent the base will be raised to
+   * @return the result, or a value beyond the limits of an Integer with the sign of the result
+   * @see IntMath#power(int, int)
+   */
+  private static long powerBySquaring(int base, int exponent) {
+    boolean negative = base < 0 && (exponent & 1) != 0;
+    if (exponent < 0) {
+      if (base == 0) {
+        return Integer.MAX_VALUE + 1L;
+      } else if (base == 1 || base == -1) {
+        return negative ? -1 : 1;
+      } else {
+        return 0;
+      }
+    }
+    long result = 1;
+    long square = Math.abs((long) base);
+    while (exponent != 0) {
+      if ((exponent & 1) != 0) {
+        result *= square;
+        if (result > LIMIT) {
+          break;
+        }
+      }
+      exponent >>>= 1;
+      if (exponent != 0) {
+        square *= square;
+        if (square > LIMIT) {
+          // the remaining bits of the exponent will multiply the result by at least this square
+          result = LIMIT + 1;
+          break;
+        }
+      }
+    }
+    return negative ? -result : result;
+  }
+}
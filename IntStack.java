@@ -0,0 +1,147 @@
+/**
+ * IntStack is a fixed-capacity stack of primitive integers.
+ * <p>
+ * The stack is backed by an int array and a count of the elements it holds, so pushing and popping
+ * never allocates or boxes values. Bounds are not checked beyond those of the backing array; it is
+ * the responsibility of the caller to check {@link #size()} or {@link #isFull()} first.
+ */
+final class IntStack {
+
+  /**
+   * The elements of the stack, from the bottom of the stack to the top.
+   */
+  private final int[] elements;
+
+  /**
+   * The number of elements currently on the stack.
+   */
+  private int size = 0;
+
+  /**
+   * Create an empty stack.
+   *
+   * @param capacity The maximum number of elements the stack can hold
+   */
+  IntStack(int capacity) {
+    this.elements = new int[capacity];
+  }
+
+  /**
+   * Get the number of elements on the stack.
+   *
+   * @return the number of elements on the stack
+   */
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Get the maximum number of elements the stack can hold.
+   *
+   * @return the capacity of the stack
+   */
+  int capacity() {
+    return this.elements.length;
+  }
+
+  /**
+   * Check whether the stack is empty.
+   *
+   * @return true if there are no elements on the stack, false otherwise
+   */
+  boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Check whether the stack is full.
+   *
+   * @return true if the stack holds as many elements as its capacity, false otherwise
+   */
+  boolean isFull() {
+    return this.size == this.elements.length;
+  }
+
+  /**
+   * Add a value to the top of the stack.
+   *
+   * @param value The value to be added
+   */
+  void push(int value) {
+    this.elements[this.size++] = value;
+  }
+
+  /**
+   * Remove and return the value at the top of the stack.
+   *
+   * @return the value that was at the top of the stack
+   */
+  int pop() {
+    return this.elements[--this.size];
+  }
+
+  /**
+   * Get the value at the top of the stack without removing it.
+   *
+   * @return the value at the top of the stack
+   */
+  int peek() {
+    return this.elements[this.size - 1];
+  }
+
+  /**
+   * Get a value below the top of the stack without removing it.
+   *
+   * @param depth The number of elements above the value, where 0 is the top of the stack
+   * @return the value at the given depth
+   */
+  int peek(int depth) {
+    return this.elements[this.size - 1 - depth];
+  }
+
+  /**
+   * Get a value by its position from the bottom of the stack.
+   *
+   * @param index The position of the value, where 0 is the bottom of the stack
+   * @return the value at the given position
+   */
+  int get(int index) {
+    return this.elements[index];
+  }
+
+  /**
+   * Replace the top two values of the stack with a single value, as done by a binary operator.
+   *
+   * @param value The value to replace the top two values with
+   */
+  void popTwoPushOne(int value) {
+    this.elements[this.size - 2] = value;
+    this.size--;
+  }
+
+  /**
+   * Get the array backing the stack, for code that reads and writes elements directly.
+   *
+   * @return the elements of the stack, from the bottom of the stack to the top
+   * @see #resize(int)
+   */
+  int[] array() {
+    return this.elements;
+  }
+
+  /**
+   * Set the number of elements on the stack after they have been written to the backing array.
+   *
+   * @param size The new number of elements on the stack
+   */
+  void resize(int size) {
+    this.size = size;
+  }
+
+  /**
+   * Remove all values from the stack.
+   */
+  void clear() {
+    this.size = 0;
+  }
+}
@@ -0,0 +1,113 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in buckets of powers of two nanoseconds.
+ * <p>
+ * Recording a duration is a single increment of a striped counter, so a histogram can be shared by
+ * many threads with little overhead. Percentiles are estimated as the upper bound of the bucket
+ * they fall in, so they are accurate to within a factor of two.
+ */
+public final class LatencyHistogram {
+
+  /**
+   * The number of buckets, enough for any non-negative long.
+   */
+  private static final int BUCKETS = 64;
+
+  /**
+   * The number of durations recorded in each bucket. Bucket n holds durations from 2^(n-1) to
+   * 2^n - 1 nanoseconds, with bucket 0 holding durations of 0.
+   */
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+  /**
+   * The sum of all recorded durations, in nanoseconds.
+   */
+  private final LongAdder total = new LongAdder();
+
+  /**
+   * Create an empty histogram.
+   */
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Record a duration.
+   *
+   * @param nanos The duration in nanoseconds
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    this.buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+    this.total.add(nanos);
+  }
+
+  /**
+   * Get the number of durations recorded.
+   *
+   * @return the number of durations recorded
+   */
+  public long count() {
+    long count = 0;
+    for (LongAdder bucket : this.buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /**
+   * Get the mean of the durations recorded.
+   *
+   * @return the mean duration in nanoseconds, or 0 if none have been recorded
+   */
+  public double mean() {
+    long count = this.count();
+    return count == 0 ? 0 : (double) this.total.sum() / count;
+  }
+
+  /**
+   * Estimate a percentile of the durations recorded.
+   *
+   * @param percentile The percentile to be estimated, from 0 to 100
+   * @return the upper bound of the bucket holding the percentile in nanoseconds, or 0 if no
+   *     durations have been recorded
+   */
+  public long percentile(double percentile) {
+    long[] counts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = this.buckets[i].sum();
+      count += counts[i];
+    }
+    long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return i == 0 ? 0 : (1L << i) - 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Discard all recorded durations.
+   */
+  public void reset() {
+    for (LongAdder bucket : this.buckets) {
+      bucket.reset();
+    }
+    this.total.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.0fns p50=%dns p99=%dns p999=%dns", this.count(),
+        this.mean(), this.percentile(50), this.percentile(99), this.percentile(99.9));
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * LegacyRandomSource repeats the pre-determined list of 22 randoms used by the legacy program.
+ * <p>
+ * After the last value of the list, the sequence wraps around to the first value again.
+ */
+public final class LegacyRandomSource implements RandomSource {
+
+  /**
+   * The pre-determined list of randoms, matching the functionality of a legacy program.
+   */
+  private static final int[] RANDOMS = {1804289383,
+      846930886,
+      1681692777,
+      1714636915,
+      1957747793,
+      424238335,
+      719885386,
+      1649760492,
+      596516649,
+      1189641421,
+      1025202362,
+      1350490027,
+      783368690,
+      1102520059,
+      2044897763,
+      1967513926,
+      1365180540,
+      1540383426,
+      304089172,
+      1303455736,
+      35005211,
+      521595368};
+
+  /**
+   * The number of values in the list before it repeats.
+   */
+  static final int PERIOD = RANDOMS.length;
+
+  /**
+   * The index in the list of the next value to be returned.
+   */
+  private int index = 0;
+
+  /**
+   * The number of values taken from the sequence so far.
+   */
+  private long position = 0;
+
+  @Override
+  public int next() {
+    int value = RANDOMS[this.index];
+    // gradually move through the pre-defined list of randoms
+    if (++this.index == PERIOD) {
+      this.index = 0;
+    }
+    this.position++;
+    return value;
+  }
+
+  @Override
+  public long position() {
+    return this.position;
+  }
+
+  @Override
+  public void seek(long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("Position must not be negative");
+    }
+    this.position = position;
+    this.index = (int) (position % PERIOD);
+  }
+
+  @Override
+  public int valueAt(long position) {
+    return RANDOMS[(int) (position % PERIOD)];
+  }
+}
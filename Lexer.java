@@ -0,0 +1,413 @@
+/**
+ * Lexer splits a line of user input into the tokens understood by {@link SRPN}.
+ * <p>
+ * The lexer makes a single pass over the characters of a line and reproduces the behaviour of the
+ * legacy regular expression pipeline:
+ * <ul>
+ *   <li>everything from the first to the last # on a line is a comment and is removed</li>
+ *   <li>+ / * ^ % are separate tokens unless followed by =</li>
+ *   <li>+= -= /= *= ^= %= are separate tokens</li>
+ *   <li>every letter (a-z, A-Z) is a separate token</li>
+ *   <li>whitespace separates all other tokens</li>
+ * </ul>
+ * <p>
+ * As comments are removed before tokens are separated, the text on either side of a comment is
+ * joined together (e.g. 1#comment#2 is the single token 12).
+ * <p>
+ * A lexer is reused for every line by calling {@link #reset(CharSequence)}, and is not thread-safe.
+ * The lexer itself is a view of the characters of the current token.
+ */
+final class Lexer implements CharSequence {
+
+  /**
+   * The line currently being split into tokens.
+   */
+  private CharSequence input = "";
+
+  /**
+   * The index of the next character of the input to be read.
+   */
+  private int position = 0;
+
+  /**
+   * The index of the first character of the next comment at or after the current position, or -1
+   * if there are no more comments on the line.
+   */
+  private int commentStart = -1;
+
+  /**
+   * The index of the first character after the next comment.
+   */
+  private int commentEnd = -1;
+
+  /**
+   * The index after the last character that is not removed by trimming the line, or -1 if this has
+   * not been calculated yet.
+   */
+  private int trimmedEnd = -1;
+
+  /**
+   * Whether a token has been produced for the current line.
+   */
+  private boolean tokenProduced = false;
+
+  /**
+   * The characters of the current token.
+   */
+  private char[] token = new char[16];
+
+  /**
+   * The number of characters in the current token.
+   */
+  private int length = 0;
+
+  /**
+   * Whether the current token is an integer literal.
+   */
+  private boolean number = false;
+
+  /**
+   * The saturated value of the current token if it is an integer literal.
+   */
+  private int value = 0;
+
+  /**
+   * The opcode resolved from the current token if it is not an integer literal.
+   *
+   * @see Opcode#resolve(CharSequence)
+   */
+  private int code = Opcode.UNRECOGNISED;
+
+  /**
+   * Start splitting a new line into tokens.
+   *
+   * @param input The line to be split into tokens
+   */
+  void reset(CharSequence input) {
+    this.input = input;
+    this.trimmedEnd = -1;
+    this.tokenProduced = false;
+    this.length = 0;
+    this.findComment(0);
+    this.skipTo(0);
+  }
+
+  /**
+   * Read the next token from the line.
+   *
+   * @return true if a token was read, false if the end of the line has been reached
+   */
+  boolean next() {
+    this.length = 0;
+    while (this.position < this.input.length()) {
+      char character = this.input.charAt(this.position);
+      if (isWhitespace(character)) {
+        this.skipTo(this.position + 1);
+        if (this.length > 0) {
+          break;
+        }
+      } else if (character <= ' ') {
+        // control characters are only removed at the start and end of the line, as with trim()
+        if (this.position >= this.trimmedEnd()) {
+          this.position = this.input.length();
+        } else if (this.tokenProduced || this.length > 0) {
+          this.append(character);
+          this.skipTo(this.position + 1);
+        } else {
+          this.skipTo(this.position + 1);
+        }
+      } else if (isLetter(character) || (isOperator(character)
+          && (character != '-' || this.peekNext() == '='))) {
+        if (this.length > 0) {
+          // the letter or operator will be the next token
+          break;
+        }
+        this.append(character);
+        this.skipTo(this.position + 1);
+        if (isOperator(character) && this.peek() == '=') {
+          this.append('=');
+          this.skipTo(this.position + 1);
+        }
+        break;
+      } else {
+        this.append(character);
+        this.skipTo(this.position + 1);
+      }
+    }
+    if (this.length > 0) {
+      this.tokenProduced = true;
+      this.classify();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Check whether the current token is an integer literal.
+   * <p>
+   * A token is an integer literal if it consists of an optional sign followed by one or more
+   * digits, as accepted by Integer.parseInt.
+   *
+   * @return true if the current token is an integer literal, false otherwise
+   */
+  boolean isNumber() {
+    return this.number;
+  }
+
+  /**
+   * Get the value of the current token if it is an integer literal.
+   * <p>
+   * Literals outside the limits of an Integer are saturated to the nearest limit.
+   *
+   * @return the saturated value of the current token
+   * @see SRPN#saturate(long)
+   */
+  int intValue() {
+    return this.value;
+  }
+
+  /**
+   * Get the text of the current token.
+   *
+   * @return the current token as a String
+   */
+  String text() {
+    return new String(this.token, 0, this.length);
+  }
+
+  /**
+   * Get the opcode resolved from the current token.
+   *
+   * @return the resolved code of the current token, or {@link Opcode#UNRECOGNISED} if it is not an
+   *     operator
+   * @see Opcode#resolve(CharSequence)
+   */
+  int code() {
+    return this.code;
+  }
+
+  /**
+   * Get the number of characters in the current token.
+   *
+   * @return the length of the current token
+   */
+  @Override
+  public int length() {
+    return this.length;
+  }
+
+  /**
+   * Get a character of the current token.
+   *
+   * @param index The index of the character within the token
+   * @return the character at the given index
+   */
+  @Override
+  public char charAt(int index) {
+    return this.token[index];
+  }
+
+  /**
+   * Get part of the current token.
+   *
+   * @param start The index of the first character, inclusive
+   * @param end The index of the last character, exclusive
+   * @return the characters of the current token between the given indices
+   */
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return this.text().substring(start, end);
+  }
+
+  /**
+   * Get the text of the current token.
+   *
+   * @return the current token as a String
+   * @see #text()
+   */
+  @Override
+  public String toString() {
+    return this.text();
+  }
+
+  /**
+   * Determine whether the current token is an operator or an integer literal and calculate its
+   * value.
+   * <p>
+   * The value is accumulated in a long, which stops growing once it is beyond the limits of an
+   * Integer so that it cannot overflow before being saturated.
+   */
+  private void classify() {
+    this.number = false;
+    this.code = Opcode.resolve(this);
+    if (this.code != Opcode.UNRECOGNISED) {
+      return;
+    }
+    int index = 0;
+    boolean negative = false;
+    if (this.token[0] == '-' || this.token[0] == '+') {
+      negative = this.token[0] == '-';
+      index = 1;
+    }
+    if (index == this.length) {
+      return;
+    }
+    long magnitude = 0;
+    for (; index < this.length; index++) {
+      int digit = Character.digit(this.token[index], 10);
+      if (digit < 0) {
+        return;
+      }
+      if (magnitude <= Integer.MAX_VALUE) {
+        magnitude = magnitude * 10 + digit;
+      }
+    }
+    this.number = true;
+    this.value = SRPN.saturate(negative ? -magnitude : magnitude);
+  }
+
+  /**
+   * Add a character to the end of the current token.
+   *
+   * @param character The character to be added
+   */
+  private void append(char character) {
+    if (this.length == this.token.length) {
+      this.token = java.util.Arrays.copyOf(this.token, this.length * 2);
+    }
+    this.token[this.length++] = character;
+  }
+
+  /**
+   * Get the character at the current position, or 0 if the end of the line has been reached.
+   *
+   * @return the next character to be read
+   */
+  private char peek() {
+    return this.position < this.input.length() ? this.input.charAt(this.position) : 0;
+  }
+
+  /**
+   * Get the character after the current position, stepping over a comment, or 0 if the end of the
+   * line has been reached.
+   *
+   * @return the character after the next character to be read
+   */
+  private char peekNext() {
+    int index = this.position + 1;
+    if (index == this.commentStart) {
+      index = this.commentEnd;
+    }
+    return index < this.input.length() ? this.input.charAt(index) : 0;
+  }
+
+  /**
+   * Move to a position in the line, stepping over a comment starting at that position.
+   *
+   * @param index The index to move to
+   */
+  private void skipTo(int index) {
+    this.position = index;
+    if (index == this.commentStart) {
+      this.position = this.commentEnd;
+      this.findComment(this.commentEnd);
+    }
+  }
+
+  /**
+   * Find the next comment starting at or after an index.
+   * <p>
+   * A comment runs from a # to the last # before the next line terminator. A # without a matching
+   * # on the same line is not a comment.
+   *
+   * @param from The index to start searching from
+   */
+  private void findComment(int from) {
+    this.commentStart = -1;
+    int start = -1;
+    for (int i = from; i < this.input.length(); i++) {
+      char character = this.input.charAt(i);
+      if (character == '#') {
+        if (start < 0) {
+          start = i;
+        } else {
+          this.commentStart = start;
+          this.commentEnd = i + 1;
+        }
+      } else if (isLineTerminator(character)) {
+        if (this.commentStart >= 0) {
+          return;
+        }
+        start = -1;
+      }
+    }
+  }
+
+  /**
+   * Calculate the end of the line once trailing whitespace and control characters are removed.
+   *
+   * @return the index after the last character that is not removed by trimming the line
+   */
+  private int trimmedEnd() {
+    if (this.trimmedEnd < 0) {
+      int savedPosition = this.position;
+      int savedCommentStart = this.commentStart;
+      int savedCommentEnd = this.commentEnd;
+      int end = 0;
+      while (this.position < this.input.length()) {
+        if (this.input.charAt(this.position) > ' ') {
+          end = this.position + 1;
+        }
+        this.skipTo(this.position + 1);
+      }
+      this.trimmedEnd = end;
+      this.position = savedPosition;
+      this.commentStart = savedCommentStart;
+      this.commentEnd = savedCommentEnd;
+    }
+    return this.trimmedEnd;
+  }
+
+  /**
+   * Check whether a character separates tokens, matching the \s regular expression class.
+   *
+   * @param character The character to be checked
+   * @return true if the character is whitespace, false otherwise
+   */
+  private static boolean isWhitespace(char character) {
+    return character == ' ' || (character >= '\t' && character <= '\r');
+  }
+
+  /**
+   * Check whether a character is a letter that forms a token on its own.
+   *
+   * @param character The character to be checked
+   * @return true if the character is a letter from a-z or A-Z, false otherwise
+   */
+  private static boolean isLetter(char character) {
+    return (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z');
+  }
+
+  /**
+   * Check whether a character is an operator that can be followed by =.
+   *
+   * @param character The character to be checked
+   * @return true if the character is one of + - * / ^ %, false otherwise
+   */
+  private static boolean isOperator(char character) {
+    return character == '+' || character == '-' || character == '*' || character == '/'
+        || character == '^' || character == '%';
+  }
+
+  /**
+   * Check whether a character ends a line, matching the characters not matched by . in a regular
+   * expression.
+   *
+   * @param character The character to be checked
+   * @return true if the character is a line terminator, false otherwise
+   */
+  private static boolean isLineTerminator(char character) {
+    return character == '\n' || character == '\r' || character == '\u0085'
+        || character == '\u2028' || character == '\u2029';
+  }
+}
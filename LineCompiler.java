@@ -0,0 +1,612 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LineCompiler is the second tier of execution for lines entered many times: it compiles a
+ * {@link Program} to JVM bytecode in a hidden class, so that the line runs without dispatching on
+ * each instruction.
+ * <p>
+ * The generated code is straight-line, without branches, so it needs no stack map frames. Each
+ * operand is stored directly into the array backing the stack, at an offset fixed at compile
+ * time, and the saturating arithmetic is inlined as a clamp with {@link Math#min(long, long)} and
+ * {@link Math#max(long, long)}, which the JIT compiler turns into branch-free instructions. Events
+ * are reported to the calculator's listener directly. Divisors are checked by a helper that stops
+ * the code just before a division by 0, so that the interpreter can report it.
+ * <p>
+ * Programs are only compiled after they have been executed {@link #THRESHOLD} times, set by the
+ * srpn.jit.threshold system property (1000 by default, negative to disable compilation). Programs
+ * that are too long are left to the interpreter.
+ *
+ * @see CompiledProgram
+ */
+final class LineCompiler {
+
+  /**
+   * The number of times a program is interpreted before it is compiled, or a negative number if
+   * programs are never compiled.
+   */
+  static final int THRESHOLD = Integer.getInteger("srpn.jit.threshold", 1000);
+
+  /**
+   * The largest number of instructions in a program that is compiled, which keeps the bytecode of
+   * every program well within the 64 KiB limit of a method.
+   */
+  private static final int MAX_INSTRUCTIONS = 1024;
+
+  /**
+   * The lookup used to define hidden classes in this package.
+   */
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  /**
+   * The major version of the class files generated, for Java 11, which needs no stack map frames
+   * for code without branches.
+   */
+  private static final int CLASS_VERSION = 55;
+
+  // Opcodes of the JVM instructions used by generated code
+  private static final int ICONST_0 = 0x03;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC_W = 0x13;
+  private static final int LDC2_W = 0x14;
+  private static final int ILOAD_2 = 0x1c;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_1 = 0x2b;
+  private static final int ALOAD_3 = 0x2d;
+  private static final int ALOAD = 0x19;
+  private static final int IALOAD = 0x2e;
+  private static final int IASTORE = 0x4f;
+  private static final int IADD = 0x60;
+  private static final int LADD = 0x61;
+  private static final int LSUB = 0x65;
+  private static final int LMUL = 0x69;
+  private static final int LDIV = 0x6d;
+  private static final int IREM = 0x70;
+  private static final int I2L = 0x85;
+  private static final int L2I = 0x88;
+  private static final int RETURN = 0xb1;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC = 0xb8;
+  private static final int INVOKEINTERFACE = 0xb9;
+
+  /**
+   * Thrown by generated code to continue a program in the interpreter.
+   */
+  static final class Deoptimization extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The index of the instruction the interpreter continues from.
+     */
+    final int index;
+
+    Deoptimization(int index) {
+      super(null, null, false, false);
+      this.index = index;
+    }
+  }
+
+  private LineCompiler() {
+  }
+
+  /**
+   * Compile a program to bytecode.
+   *
+   * @param program The program to be compiled
+   * @return the compiled program, or null if the program cannot be compiled
+   */
+  static CompiledProgram compile(Program program) {
+    if (program.size() > MAX_INSTRUCTIONS) {
+      return null;
+    }
+    int[] depths = new int[program.size() + 1];
+    int depth = 0;
+    int required = 0;
+    int headroom = 0;
+    for (int i = 0; i < program.size(); i++) {
+      Instruction instruction = program.get(i);
+      depths[i] = depth;
+      switch (instruction.kind) {
+        case PUSH:
+        case FOLDED:
+          headroom = Math.max(headroom, depth + instruction.headroom);
+          depth++;
+          break;
+
+        case OPERATOR:
+          Opcode opcode = instruction.opcode();
+          if (opcode == Opcode.RANDOM) {
+            headroom = Math.max(headroom, depth + 1);
+          } else if (opcode == Opcode.EQUALS) {
+            // = reports an empty stack as an error
+            required = Math.max(required, 1 - depth);
+          } else {
+            required = Math.max(required, opcode.operands - depth);
+          }
+          depth += opcode.results - opcode.operands;
+          break;
+
+        default:
+          break;
+      }
+    }
+    depths[program.size()] = depth;
+    byte[] bytes;
+    try {
+      bytes = new ClassFile(program, depths).toByteArray();
+    } catch (UncheckedIOException e) {
+      // a token too long for the constant pool
+      return null;
+    }
+    try {
+      MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+      CompiledLine line = (CompiledLine) hidden
+          .findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+      return new CompiledProgram(line, required, headroom, depths);
+    } catch (VirtualMachineError e) {
+      throw e;
+    } catch (Throwable e) {
+      // bytecode the JVM rejects, such as a VerifyError, leaves the program to the interpreter
+      return null;
+    }
+  }
+
+  /**
+   * Check the divisor of a division before it is done, for use by generated code.
+   *
+   * @param divisor The divisor at the top of the stack
+   * @param index The index of the division in its program
+   * @throws Deoptimization if the divisor is 0, so that the interpreter reports the error
+   */
+  static void checkDivisor(int divisor, int index) {
+    if (divisor == 0) {
+      throw new Deoptimization(index);
+    }
+  }
+
+  /**
+   * ClassFile writes the class file of a hidden class implementing {@link CompiledLine} for a
+   * single program.
+   */
+  private static final class ClassFile {
+
+    /**
+     * The constant pool of the class, without its count.
+     */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+    /**
+     * The writer of the constant pool.
+     */
+    private final DataOutputStream constants = new DataOutputStream(this.pool);
+
+    /**
+     * The index of each constant already in the pool, keyed by its tag and value.
+     */
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    /**
+     * The number of slots used in the constant pool, plus 1.
+     */
+    private int count = 1;
+
+    /**
+     * The bytecode of the run method.
+     */
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    /**
+     * Generate the bytecode for a program.
+     *
+     * @param program The program to be compiled
+     * @param depths The relative depth of the stack before each instruction
+     */
+    ClassFile(Program program, int[] depths) {
+      for (int i = 0; i < program.size(); i++) {
+        this.instruction(program.get(i), i, depths[i]);
+      }
+      this.code.write(RETURN);
+    }
+
+    /**
+     * Generate the bytecode for a single instruction.
+     *
+     * @param instruction The instruction to be compiled
+     * @param index The index of the instruction in its program
+     * @param depth The relative depth of the stack before the instruction
+     */
+    private void instruction(Instruction instruction, int index, int depth) {
+      switch (instruction.kind) {
+        case PUSH:
+        case FOLDED:
+          this.element(depth);
+          this.constant(instruction.operand);
+          this.code.write(IASTORE);
+          return;
+
+        case UNRECOGNISED:
+          this.code.write(ALOAD_3);
+          this.opcode(LDC_W, this.string(instruction.text));
+          this.invokeInterface("SrpnListener", "onUnrecognised", "(Ljava/lang/CharSequence;)V", 2);
+          return;
+
+        default:
+          break;
+      }
+      Opcode opcode = instruction.opcode();
+      switch (opcode) {
+        case EQUALS:
+          this.code.write(ALOAD_3);
+          this.load(depth - 1);
+          this.invokeInterface("SrpnListener", "onResult", "(I)V", 2);
+          return;
+
+        case DISPLAY:
+          this.code.write(ALOAD_3);
+          this.code.write(ALOAD_1);
+          this.code.write(ILOAD_2);
+          this.constant(depth);
+          this.code.write(IADD);
+          this.invokeInterface("SrpnListener", "onDisplay", "([II)V", 3);
+          return;
+
+        case RANDOM:
+          this.element(depth);
+          this.code.write(ALOAD);
+          this.code.write(4);
+          this.invokeInterface("RandomSource", "next", "()I", 1);
+          this.code.write(IASTORE);
+          return;
+
+        default:
+          break;
+      }
+      // the divisor is checked before any output, as the interpreter repeats the whole operator
+      if (opcode == Opcode.DIVIDE || opcode == Opcode.MOD) {
+        this.load(depth - 1);
+        this.constant(index);
+        this.invokeStatic("LineCompiler", "checkDivisor", "(II)V");
+      }
+      if ((instruction.code & Opcode.PRINT) != 0) {
+        this.code.write(ALOAD_3);
+        this.load(depth - 1);
+        this.invokeInterface("SrpnListener", "onResult", "(I)V", 2);
+      }
+      // the result replaces the first operand
+      this.element(depth - 2);
+      this.load(depth - 2);
+      switch (opcode) {
+        case ADD:
+          this.code.write(I2L);
+          this.load(depth - 1);
+          this.code.write(I2L);
+          this.code.write(LADD);
+          this.saturate();
+          break;
+
+        case SUBTRACT:
+          this.code.write(I2L);
+          this.load(depth - 1);
+          this.code.write(I2L);
+          this.code.write(LSUB);
+          this.saturate();
+          break;
+
+        case MULTIPLY:
+          this.code.write(I2L);
+          this.load(depth - 1);
+          this.code.write(I2L);
+          this.code.write(LMUL);
+          this.saturate();
+          break;
+
+        case DIVIDE:
+          this.code.write(I2L);
+          this.load(depth - 1);
+          this.code.write(I2L);
+          this.code.write(LDIV);
+          this.saturate();
+          break;
+
+        case MOD:
+          this.load(depth - 1);
+          this.code.write(IREM);
+          break;
+
+        case POWER:
+          this.load(depth - 1);
+          this.invokeStatic("IntMath", "power", "(II)J");
+          this.saturate();
+          break;
+
+        default:
+          throw new IllegalStateException("Unexpected opcode " + opcode);
+      }
+      this.code.write(IASTORE);
+    }
+
+    /**
+     * Push the array backing the stack and the index of an element onto the operand stack.
+     *
+     * @param depth The position of the element relative to the depth the program started at
+     */
+    private void element(int depth) {
+      this.code.write(ALOAD_1);
+      this.code.write(ILOAD_2);
+      this.constant(depth);
+      this.code.write(IADD);
+    }
+
+    /**
+     * Push the value of an element of the stack onto the operand stack.
+     *
+     * @param depth The position of the element relative to the depth the program started at
+     */
+    private void load(int depth) {
+      this.element(depth);
+      this.code.write(IALOAD);
+    }
+
+    /**
+     * Clamp the long on top of the operand stack to the limits of an Integer, then narrow it.
+     */
+    private void saturate() {
+      this.opcode(LDC2_W, this.longConstant(Integer.MAX_VALUE));
+      this.opcode(INVOKESTATIC, this.method(10, "java/lang/Math", "min", "(JJ)J"));
+      this.opcode(LDC2_W, this.longConstant(Integer.MIN_VALUE));
+      this.opcode(INVOKESTATIC, this.method(10, "java/lang/Math", "max", "(JJ)J"));
+      this.code.write(L2I);
+    }
+
+    /**
+     * Push an int constant onto the operand stack, with the shortest instruction for it.
+     *
+     * @param value The constant to be pushed
+     */
+    private void constant(int value) {
+      if (value >= -1 && value <= 5) {
+        this.code.write(ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        this.code.write(BIPUSH);
+        this.code.write(value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        this.code.write(SIPUSH);
+        this.code.write(value >> 8);
+        this.code.write(value);
+      } else {
+        this.opcode(LDC_W, this.pooled("I" + value, out -> {
+          out.writeByte(3);
+          out.writeInt(value);
+        }, 1));
+      }
+    }
+
+    /**
+     * Call a static method.
+     *
+     * @param owner The internal name of the class declaring the method
+     * @param name The name of the method
+     * @param descriptor The descriptor of the method
+     */
+    private void invokeStatic(String owner, String name, String descriptor) {
+      this.opcode(INVOKESTATIC, this.method(10, owner, name, descriptor));
+    }
+
+    /**
+     * Call an interface method.
+     *
+     * @param owner The internal name of the interface declaring the method
+     * @param name The name of the method
+     * @param descriptor The descriptor of the method
+     * @param slots The number of operand stack slots taken by the receiver and arguments
+     */
+    private void invokeInterface(String owner, String name, String descriptor, int slots) {
+      this.opcode(INVOKEINTERFACE, this.method(11, owner, name, descriptor));
+      this.code.write(slots);
+      this.code.write(0);
+    }
+
+    /**
+     * Write an instruction taking a two byte index.
+     *
+     * @param opcode The opcode of the instruction
+     * @param index The index operand of the instruction
+     */
+    private void opcode(int opcode, int index) {
+      this.code.write(opcode);
+      this.code.write(index >> 8);
+      this.code.write(index);
+    }
+
+    /**
+     * Get the index of a UTF-8 constant, adding it to the pool if needed.
+     *
+     * @param value The text of the constant
+     * @return the index of the constant
+     */
+    private int utf8(String value) {
+      return this.pooled("U" + value, out -> {
+        out.writeByte(1);
+        out.writeUTF(value);
+      }, 1);
+    }
+
+    /**
+     * Get the index of a class constant, adding it to the pool if needed.
+     *
+     * @param name The internal name of the class
+     * @return the index of the constant
+     */
+    private int type(String name) {
+      int nameIndex = this.utf8(name);
+      return this.pooled("C" + name, out -> {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+      }, 1);
+    }
+
+    /**
+     * Get the index of a String constant, adding it to the pool if needed.
+     *
+     * @param value The value of the String
+     * @return the index of the constant
+     */
+    private int string(String value) {
+      int valueIndex = this.utf8(value);
+      return this.pooled("S" + value, out -> {
+        out.writeByte(8);
+        out.writeShort(valueIndex);
+      }, 1);
+    }
+
+    /**
+     * Get the index of a long constant, adding it to the pool if needed.
+     *
+     * @param value The value of the constant
+     * @return the index of the constant
+     */
+    private int longConstant(long value) {
+      return this.pooled("J" + value, out -> {
+        out.writeByte(5);
+        out.writeLong(value);
+      }, 2);
+    }
+
+    /**
+     * Get the index of a method reference, adding it to the pool if needed.
+     *
+     * @param tag The tag of the reference, 10 for a class method or 11 for an interface method
+     * @param owner The internal name of the type declaring the method
+     * @param name The name of the method
+     * @param descriptor The descriptor of the method
+     * @return the index of the constant
+     */
+    private int method(int tag, String owner, String name, String descriptor) {
+      int ownerIndex = this.type(owner);
+      int nameIndex = this.utf8(name);
+      int descriptorIndex = this.utf8(descriptor);
+      int nameAndType = this.pooled("N" + name + descriptor, out -> {
+        out.writeByte(12);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+      }, 1);
+      return this.pooled("M" + owner + "." + name + descriptor, out -> {
+        out.writeByte(tag);
+        out.writeShort(ownerIndex);
+        out.writeShort(nameAndType);
+      }, 1);
+    }
+
+    /**
+     * Writes the content of a constant.
+     */
+    private interface ConstantWriter {
+      void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Get the index of a constant, adding it to the pool if it is not already there.
+     *
+     * @param key The tag and value identifying the constant
+     * @param writer The writer of the constant
+     * @param slots The number of pool slots taken by the constant
+     * @return the index of the constant
+     */
+    private int pooled(String key, ConstantWriter writer, int slots) {
+      Integer index = this.indexes.get(key);
+      if (index != null) {
+        return index;
+      }
+      try {
+        writer.write(this.constants);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      index = this.count;
+      this.count += slots;
+      this.indexes.put(key, index);
+      return index;
+    }
+
+    /**
+     * Write the class file.
+     *
+     * @return the bytes of the class file
+     */
+    byte[] toByteArray() {
+      int thisClass = this.type("CompiledLineImpl");
+      int superClass = this.type("java/lang/Object");
+      int lineInterface = this.type("CompiledLine");
+      int objectConstructor = this.method(10, "java/lang/Object", "<init>", "()V");
+      int constructorName = this.utf8("<init>");
+      int constructorDescriptor = this.utf8("()V");
+      int runName = this.utf8("run");
+      int runDescriptor = this.utf8("([IILSrpnListener;LRandomSource;)V");
+      int codeName = this.utf8("Code");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        out.writeShort(this.count);
+        this.pool.writeTo(out);
+        // final, super
+        out.writeShort(0x0010 | 0x0020);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(lineInterface);
+        out.writeShort(0);
+        out.writeShort(2);
+
+        // public CompiledLineImpl() { super(); }
+        byte[] constructor = {ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectConstructor >> 8),
+            (byte) objectConstructor, (byte) RETURN};
+        method(out, constructorName, constructorDescriptor, codeName, 1, 1, constructor);
+
+        // public void run(int[] elements, int base, SrpnListener listener, RandomSource randoms)
+        method(out, runName, runDescriptor, codeName, 8, 5, this.code.toByteArray());
+        out.writeShort(0);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Write a public method with a Code attribute and no exception handlers.
+     *
+     * @param out The class file being written
+     * @param name The index of the name of the method
+     * @param descriptor The index of the descriptor of the method
+     * @param codeName The index of the name of the Code attribute
+     * @param maxStack The maximum depth of the operand stack
+     * @param maxLocals The number of local variables, including parameters
+     * @param code The bytecode of the method
+     * @throws IOException if the method could not be written
+     */
+    private static void method(DataOutputStream out, int name, int descriptor, int codeName,
+        int maxStack, int maxLocals, byte[] code) throws IOException {
+      out.writeShort(0x0001);
+      out.writeShort(name);
+      out.writeShort(descriptor);
+      out.writeShort(1);
+      out.writeShort(codeName);
+      out.writeInt(12 + code.length);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(code.length);
+      out.write(code);
+      out.writeShort(0);
+      out.writeShort(0);
+    }
+  }
+}
@@ -1,34 +1,351 @@
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import javax.management.JMException;
 
 class Main {
 
   // main method
   // reads in input from the command line
   // and passes this input to the processCommand method in SRPN
+  //
+  // Options:
+  //   --file <script>  evaluate a script file in batch mode
+  //   --serve <port> [--bind <host>]
+  //                    serve a calculator session to each TCP connection on
+  //                    the loopback interface, or on the address of <host>
+  //                    (0.0.0.0 for every interface)
+  //   --parallel [--out <dir>] <script | dir>...
+  //                    evaluate many scripts at once, writing each output to
+  //                    <dir>/<script>.out or merging them in order to stdout
+  //   --replay <log> [--until <line>] [--hash | --expect <output>]
+  //                    replay a recorded input log as fast as possible with
+  //                    output discarded, hashed, or compared with the expected
+  //                    output up to the first difference or a line that throws
+  //   --stream         evaluate standard input as a reactive stream, so that
+  //                    slow output throttles reading instead of buffering
+  //
+  // Set -Dsrpn.metrics=<seconds> to expose metrics over JMX and write them
+  // to stderr periodically in console and --file modes
+  // Set -Dsrpn.telemetry=<seconds> to do the same for stack depth,
+  // saturation and overflow telemetry
+  // Either one makes the session interpret every line, so that no event
+  // is missed, instead of compiling the lines it runs most often
+  // Set -Dsrpn.journal=<file> in console mode to resume the session recorded
+  // in the journal and keep recording it, committing every
+  // -Dsrpn.journal.millis milliseconds (100 by default)
 
   public static void main(String[] args) {
+    if (args.length == 2 && args[0].equals("--file")) {
+      runFile(args[1]);
+    } else if (args.length >= 2 && args[0].equals("--serve")) {
+      runServer(args);
+    } else if (args.length >= 2 && args[0].equals("--parallel")) {
+      runParallel(args);
+    } else if (args.length >= 2 && args[0].equals("--replay")) {
+      runReplay(args);
+    } else if (args.length == 1 && args[0].equals("--stream")) {
+      runStream();
+    } else if (args.length == 0) {
+      runConsole();
+    } else {
+      usage();
+    }
+  }
+
+  // Print the options and exit with status 2
+  private static void usage() {
+    System.err.println("Usage: java Main [--file <script> | --serve <port> [--bind <host>]"
+        + " | --parallel [--out <dir>] <script | dir>..."
+        + " | --replay <log> [--until <line>] [--hash | --expect <output>]"
+        + " | --stream]");
+    System.exit(2);
+  }
+
+  // Attach metrics and telemetry to a session if they were requested
+  private static void instrument(SRPN sprn) {
+    List<ExecutionObserver> observers = new ArrayList<>();
+    int period = Integer.getInteger("srpn.metrics", 0);
+    if (period > 0) {
+      Metrics metrics = new Metrics();
+      try {
+        metrics.register("main");
+      } catch (JMException e) {
+        System.err.println(e.getMessage());
+      }
+      metrics.startDump(System.err, period);
+      observers.add(metrics);
+    }
+    period = Integer.getInteger("srpn.telemetry", 0);
+    if (period > 0) {
+      StackTelemetry telemetry = new StackTelemetry();
+      try {
+        telemetry.register("main");
+      } catch (JMException e) {
+        System.err.println(e.getMessage());
+      }
+      telemetry.startDump(System.err, period);
+      observers.add(telemetry);
+    }
+    if (observers.size() == 1) {
+      sprn.setObserver(observers.get(0));
+    } else if (observers.size() > 1) {
+      sprn.setObserver(ExecutionObserver.of(observers.toArray(new ExecutionObserver[0])));
+    }
+  }
+
+  // Evaluate commands entered on the command line until the end of input
+  private static void runConsole() {
     // Code to take input from the command line
     // This input is passed to the processCommand
     // method in SRPN.java
-    SRPN sprn = new SRPN();
+    // Output is buffered, and flushed after every line only when a user is typing at a console
+    BufferedOutputSink out = new BufferedOutputSink(new FileOutputStream(FileDescriptor.out),
+        BufferedOutputSink.DEFAULT_BUFFER_SIZE, System.console() != null ? 1 : 0);
+    // The calculator itself is headless; the console is just one listener to its results
+    SRPN sprn = new SRPN(new ConsoleListener(out));
+    instrument(sprn);
 
     BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
+    IOException failure = null;
+    CommandJournal journal = null;
     try {
+      journal = journal(sprn);
       //Keep on accepting input from the command-line
+      //until an End-of-file (EOF) (Ctrl-D on the terminal)
+      String command;
+      while ((command = reader.readLine()) != null) {
+        //(attempt to) process the character
+        sprn.processCommand(command);
+      }
+    } catch (IOException e) {
+      failure = e;
+    } finally {
+      // all output is written even when a command throws, as it was
+      // before output was buffered
+      out.flush();
+      if (journal != null) {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          failure = failure != null ? failure : e;
+        }
+      }
+    }
+    if (failure != null) {
+      System.err.println(failure.getMessage());
+      System.exit(1);
+    }
+    //Exit code 0 for a graceful exit
+    System.exit(0);
+  }
+
+  // Resume a session from its journal and keep journaling it, if requested
+  private static CommandJournal journal(SRPN sprn) throws IOException {
+    String path = System.getProperty("srpn.journal");
+    if (path == null) {
+      return null;
+    }
+    return new CommandJournal(Paths.get(path), sprn, 1 << 16,
+        Long.getLong("srpn.journal.millis", 100));
+  }
+
+  // Evaluate every line of a script file, reading it through a memory mapping
+  // so that no String is created per line
+  private static void runFile(String script) {
+    BufferedOutputSink out =
+        new BufferedOutputSink(new FileOutputStream(FileDescriptor.out), 1 << 20, 0);
+    SRPN sprn = new SRPN(out);
+    instrument(sprn);
+    try {
+      MappedScript.forEachLine(Paths.get(script), line -> {
+        sprn.interpret(line);
+        return true;
+      });
+    } catch (IOException e) {
+      out.flush();
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } finally {
+      // also reached when a command throws
+      out.flush();
+    }
+    System.exit(0);
+  }
+
+  // Serve calculator sessions over TCP until the process is stopped,
+  // reporting connection and throughput metrics every 10 seconds
+  private static void runServer(String[] args) {
+    String host = null;
+    if (args.length == 4 && args[2].equals("--bind")) {
+      host = args[3];
+    } else if (args.length != 2) {
+      usage();
+    }
+    int port = -1;
+    try {
+      port = Integer.parseInt(args[1]);
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    if (port < 0 || port > 65535) {
+      System.err.println("--serve must be given a port from 0 to 65535");
+      usage();
+    }
+    try {
+      Server server = host == null
+          ? new Server(port) : new Server(new InetSocketAddress(host, port));
+      System.err.println("Listening on " + server.address());
       while (true) {
-        String command = reader.readLine();
-        //Close on an End-of-file (EOF) (Ctrl-D on the terminal)
-        if (command == null) {
-          //Exit code 0 for a graceful exit
-          System.exit(0);
+        Thread.sleep(10_000);
+        System.err.println(server.metrics());
+      }
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } catch (InterruptedException e) {
+      System.exit(0);
+    }
+  }
+
+  // Evaluate many scripts at once, each in its own session, then print
+  // the aggregate timing
+  private static void runParallel(String[] args) {
+    Path outputDirectory = null;
+    List<Path> paths = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--out") && i + 1 < args.length) {
+        outputDirectory = Paths.get(args[++i]);
+      } else {
+        paths.add(Paths.get(args[i]));
+      }
+    }
+    ParallelRunner runner = new ParallelRunner(Runtime.getRuntime().availableProcessors());
+    try {
+      OutputStream out =
+          new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 20);
+      ParallelRunner.Summary summary =
+          runner.run(ParallelRunner.expand(paths), outputDirectory, out);
+      System.err.println(summary);
+      System.exit(summary.failures == 0 ? 0 : 1);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  // Replay a recorded input log, reporting the time taken, the first
+  // difference from the expected output and the line that threw, if any
+  private static void runReplay(String[] args) {
+    Path log = Paths.get(args[1]);
+    long until = Long.MAX_VALUE;
+    boolean hash = false;
+    Path expected = null;
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("--until") && i + 1 < args.length) {
+        try {
+          until = Long.parseLong(args[++i]);
+        } catch (NumberFormatException e) {
+          until = 0;
         }
-        //Otherwise, (attempt to) process the character
-        sprn.processCommand(command);
+        if (until < 1) {
+          System.err.println("--until must be a line number of at least 1");
+          usage();
+        }
+      } else if (args[i].equals("--hash")) {
+        hash = true;
+      } else if (args[i].equals("--expect") && i + 1 < args.length) {
+        expected = Paths.get(args[++i]);
+      } else {
+        System.err.println("Unknown replay option " + args[i]);
+        System.exit(2);
       }
+    }
+    ReplayEngine engine = new ReplayEngine(until);
+    try {
+      ReplayEngine.Result result;
+      if (expected != null) {
+        result = engine.diff(log, expected);
+      } else if (hash) {
+        result = engine.hash(log);
+      } else {
+        result = engine.replay(log, new SRPN(NullOutputSink.INSTANCE));
+      }
+      System.out.println(result);
+      System.exit(result.mismatchLine == 0 && result.failureLine == 0 ? 0 : 1);
     } catch (IOException e) {
       System.err.println(e.getMessage());
       System.exit(1);
     }
   }
+
+  // Evaluate standard input through a publisher, an SrpnProcessor and a
+  // subscriber writing the output, which requests it in batches
+  private static void runStream() {
+    BufferedOutputSink out = new BufferedOutputSink(new FileOutputStream(FileDescriptor.out),
+        BufferedOutputSink.DEFAULT_BUFFER_SIZE, 0);
+    CompletableFuture<Void> finished = new CompletableFuture<>();
+    SrpnProcessor processor = new SrpnProcessor();
+    processor.subscribe(new Flow.Subscriber<String>() {
+      private static final int BATCH = 256;
+      private Flow.Subscription subscription;
+      private int received = 0;
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(BATCH);
+      }
+
+      @Override
+      public void onNext(String line) {
+        out.println(line);
+        // ask for the next batch once this one has been written
+        if (++this.received == BATCH) {
+          this.received = 0;
+          this.subscription.request(BATCH);
+        }
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        finished.completeExceptionally(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        finished.complete(null);
+      }
+    });
+    // submit blocks while the processor is behind, which stops reading input
+    try (SubmissionPublisher<String> publisher = new SubmissionPublisher<>()) {
+      publisher.subscribe(processor);
+      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+      String line;
+      while ((line = reader.readLine()) != null && !finished.isDone()) {
+        publisher.submit(line);
+      }
+    } catch (IOException e) {
+      finished.completeExceptionally(e);
+    }
+    try {
+      finished.join();
+      out.flush();
+      System.exit(0);
+    } catch (CompletionException e) {
+      out.flush();
+      System.err.println(e.getCause().getMessage());
+      System.exit(1);
+    }
+  }
 }
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedScript reads the lines of a script file by memory-mapping it, without creating a String
+ * for each line.
+ * <p>
+ * The file is mapped in large windows and scanned for line terminators directly over the mapped
+ * bytes. Each line is passed to a {@link LineHandler} as a reusable {@link CharSequence} view.
+ * Lines are decoded as UTF-8, the encoding of the expected output compared by {@link ReplayEngine}
+ * and of the output it hashes, with malformed bytes replaced as a Reader replaces them. A line of
+ * ASCII is read directly from the mapped bytes; any other line is decoded into a reused buffer.
+ * Lines end at \n, \r or \r\n, as with BufferedReader.readLine.
+ */
+final class MappedScript {
+
+  /**
+   * The default number of bytes mapped at a time.
+   */
+  static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+  /**
+   * Receives each line of a script in turn.
+   */
+  interface LineHandler {
+
+    /**
+     * Handle a single line of a script.
+     *
+     * @param line A view of the line, without its terminator, that is only valid during the call
+     * @return true to continue reading the script, false to stop
+     */
+    boolean line(CharSequence line);
+  }
+
+  /**
+   * A view of a line of a memory-mapped file, reused for every line.
+   */
+  private static final class Line implements CharSequence {
+
+    /**
+     * The decoder for lines that are not ASCII.
+     */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * The mapped window containing the line.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The index of the first byte of the line within the window.
+     */
+    private int start;
+
+    /**
+     * The number of characters in the line.
+     */
+    private int length;
+
+    /**
+     * The characters of the line if it is not ASCII, or null if they are read from the window.
+     */
+    private CharBuffer decoded = null;
+
+    /**
+     * The buffer lines that are not ASCII are decoded into, grown as needed.
+     */
+    private CharBuffer characters = CharBuffer.allocate(256);
+
+    /**
+     * Make this the view of a line of the window.
+     *
+     * @param start The index of the first byte of the line within the window
+     * @param length The number of bytes in the line
+     * @param ascii Whether every byte of the line is ASCII
+     */
+    void set(int start, int length, boolean ascii) {
+      this.start = start;
+      this.length = length;
+      this.decoded = null;
+      if (ascii) {
+        return;
+      }
+      // UTF-8 never decodes to more characters than it has bytes
+      if (this.characters.capacity() < length) {
+        this.characters = CharBuffer.allocate(Math.max(length, this.characters.capacity() * 2));
+      }
+      this.characters.clear();
+      this.decoder.reset();
+      this.decoder.decode(this.buffer.slice(start, length), this.characters, true);
+      this.decoder.flush(this.characters);
+      this.characters.flip();
+      this.decoded = this.characters;
+      this.length = this.characters.remaining();
+    }
+
+    @Override
+    public int length() {
+      return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (this.decoded != null) {
+        return this.decoded.get(index);
+      }
+      return (char) this.buffer.get(this.start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return this.toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      if (this.decoded != null) {
+        return this.decoded.toString();
+      }
+      char[] characters = new char[this.length];
+      for (int i = 0; i < this.length; i++) {
+        characters[i] = this.charAt(i);
+      }
+      return new String(characters);
+    }
+  }
+
+  private MappedScript() {
+  }
+
+  /**
+   * Pass each line of a file to a handler, until the end of the file or until the handler asks to
+   * stop.
+   *
+   * @param file The file to be read
+   * @param handler The handler that receives each line
+   * @return the number of lines passed to the handler
+   * @throws IOException if the file could not be read, or contains a line longer than the window
+   */
+  static long forEachLine(Path file, LineHandler handler) throws IOException {
+    return forEachLine(file, handler, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Pass each line of a file to a handler, mapping a given number of bytes at a time.
+   *
+   * @param file The file to be read
+   * @param handler The handler that receives each line
+   * @param windowSize The maximum number of bytes mapped at a time
+   * @return the number of lines passed to the handler
+   * @throws IOException if the file could not be read, or contains a line longer than the window
+   */
+  static long forEachLine(Path file, LineHandler handler, int windowSize) throws IOException {
+    long lines = 0;
+    Line line = new Line();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long windowStart = 0;
+      while (windowStart < size) {
+        int windowLength = (int) Math.min(windowSize, size - windowStart);
+        boolean lastWindow = windowStart + windowLength == size;
+        MappedByteBuffer buffer =
+            channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+        line.buffer = buffer;
+        int lineStart = 0;
+        int index = 0;
+        // negative once the line holds a byte that is not ASCII
+        int bits = 0;
+        while (index < windowLength) {
+          byte b = buffer.get(index);
+          if (b != '\n' && b != '\r') {
+            bits |= b;
+            index++;
+            continue;
+          }
+          if (b == '\r' && index + 1 == windowLength && !lastWindow) {
+            // the \r may be followed by a \n in the next window
+            break;
+          }
+          line.set(lineStart, index - lineStart, bits >= 0);
+          lines++;
+          if (!handler.line(line)) {
+            return lines;
+          }
+          index += b == '\r' && index + 1 < windowLength && buffer.get(index + 1) == '\n' ? 2 : 1;
+          lineStart = index;
+          bits = 0;
+        }
+        if (lastWindow) {
+          if (lineStart < windowLength) {
+            // the last line of the file has no terminator
+            line.set(lineStart, windowLength - lineStart, bits >= 0);
+            lines++;
+            handler.line(line);
+          }
+          break;
+        } else if (lineStart == 0) {
+          throw new IOException("Line longer than " + windowSize + " bytes in " + file);
+        }
+        windowStart += lineStart;
+      }
+    }
+    return lines;
+  }
+}
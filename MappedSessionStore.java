@@ -0,0 +1,526 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * MappedSessionStore holds the state of calculator sessions in a memory-mapped file, so that the
+ * sessions survive a restart of the process without replaying anything.
+ * <p>
+ * The file is a header followed by a fixed number of slots, one per session, addressed by an int
+ * id that is the index of the slot:
+ * <pre>
+ *   offset  size  field
+ *        0     4  magic number 0x53525353 ("SRSS")
+ *        4     1  format version
+ *        5     1  1 if slots are checksummed, otherwise 0
+ *        6     2  reserved, 0
+ *        8     4  the number of slots
+ *       12    52  reserved, 0
+ *       64        the slots, each {@link #SLOT_SIZE} bytes:
+ *                   0     4  1 if the slot holds a session, otherwise 0
+ *                   4     4  CRC-32 of the rest of the slot, or 0 if slots are not checksummed
+ *                   8     4  the id of the session
+ *                  12     4  the generation of the slot, counting the sessions opened in it
+ *                  16   108  a {@link Snapshot} of the session
+ * </pre>
+ * A new file is extended to its full size, with every slot free, before its header is written and
+ * forced, so a file whose creation was interrupted has a header of zeros and is created again.
+ * <p>
+ * Reopening a store maps the file and reads the in-use flag of each slot, so thousands of sessions
+ * are available again at once. Checksums are verified lazily, when a session is next evaluated, and
+ * a slot left inconsistent by a crash during an update is reported then rather than misread, as is
+ * a slot that holds the session of another id. Such a session can be {@link #reset(int) reset} to
+ * an empty stack or {@link #close(int) closed}. The generation lets an id kept across a restart be
+ * checked to still name the same session.
+ * <p>
+ * Changes reach the page cache as soon as they are made, and so survive the process being killed,
+ * but survive a crash of the machine only once they are forced to disk, by {@link #force()} or,
+ * optionally, at a fixed interval. Commands are evaluated as by {@link OffHeapSessionStore}, by a
+ * calculator kept per thread that loads and stores the slot of the session, under the same
+ * striped ReentrantLocks and with the same rule for listeners that call back into the store.
+ */
+public final class MappedSessionStore implements Closeable {
+
+  /**
+   * The number of bytes in each slot.
+   */
+  public static final int SLOT_SIZE = 16 + Snapshot.SIZE;
+
+  /**
+   * The number identifying a session store file.
+   */
+  private static final int MAGIC = 0x53525353;
+
+  /**
+   * The version of the file format.
+   */
+  private static final byte VERSION = 2;
+
+  /**
+   * The number of bytes in the header of the file.
+   */
+  private static final int HEADER = 64;
+
+  /**
+   * The offset within a slot of its checksum.
+   */
+  private static final int CRC = 4;
+
+  /**
+   * The offset within a slot of the id of its session.
+   */
+  private static final int ID = 8;
+
+  /**
+   * The offset within a slot of its generation.
+   */
+  private static final int GENERATION = 12;
+
+  /**
+   * The offset within a slot of the snapshot of its session.
+   */
+  private static final int SNAPSHOT = 16;
+
+  /**
+   * The number of locks sessions are spread over.
+   */
+  private static final int LOCKS = 256;
+
+  /**
+   * The mapping of the whole file.
+   */
+  private final MappedByteBuffer buffer;
+
+  /**
+   * The number of slots in the file.
+   */
+  private final int capacity;
+
+  /**
+   * Whether the snapshot in each slot is checksummed.
+   */
+  private final boolean checksums;
+
+  /**
+   * The locks serializing the commands of each session.
+   */
+  private final ReentrantLock[] locks = new ReentrantLock[LOCKS];
+
+  /**
+   * The calculator each thread evaluates commands with.
+   */
+  private final ThreadLocal<SlotWorker> workers;
+
+  /**
+   * The checksummer each thread verifies and seals slots with.
+   */
+  private final ThreadLocal<Checksummer> checksummers;
+
+  /**
+   * The ids of free slots, the lowest last, guarded by the store's monitor.
+   */
+  private final int[] free;
+
+  /**
+   * The number of ids in the free list, guarded by the store's monitor.
+   */
+  private int freeCount = 0;
+
+  /**
+   * The scheduler forcing the file to disk at a fixed interval, or null if it is only forced on
+   * request.
+   */
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Checksummer computes the CRC-32 of the slots in a mapping without allocating, through a view
+   * of the mapping of its own. A checksummer is not thread-safe, and is meant to be kept per
+   * thread.
+   */
+  private static final class Checksummer {
+
+    /**
+     * The checksum, reset for each slot.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The view of the mapping whose position and limit select the checksummed part of a slot.
+     */
+    private final ByteBuffer view;
+
+    /**
+     * Create a checksummer for the slots in a mapping.
+     *
+     * @param buffer The mapping of the file
+     */
+    Checksummer(ByteBuffer buffer) {
+      this.view = buffer.duplicate();
+    }
+
+    /**
+     * Compute the checksum of a slot, which covers the id, the generation and the snapshot.
+     *
+     * @param slot The index of the first byte of the slot
+     * @return the CRC-32 of the slot
+     */
+    int checksum(int slot) {
+      this.crc.reset();
+      this.view.limit(slot + SLOT_SIZE).position(slot + ID);
+      this.crc.update(this.view);
+      return (int) this.crc.getValue();
+    }
+  }
+
+  /**
+   * Open a store, creating the file if it does not exist. The capacity and checksums of an
+   * existing file are kept, and the arguments ignored.
+   *
+   * @param path The file the sessions are held in
+   * @param capacity The number of slots of a new file
+   * @param checksums Whether the slots of a new file are checksummed
+   * @param forceMillis The number of milliseconds between forcing the file to disk, or 0 to force
+   *     it only on request
+   * @throws IOException if the file could not be opened or is not a valid store
+   */
+  public MappedSessionStore(Path path, int capacity, boolean checksums, long forceMillis)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      channel.read(header, 0);
+      if (isZero(header)) {
+        // a new file, or one whose creation was interrupted before its header was written
+        if (capacity < 1 || capacity > (Integer.MAX_VALUE - HEADER) / SLOT_SIZE) {
+          throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        channel.truncate(0);
+        // mapping past the end of the file extends it with zeros, which are free slots
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+            HEADER + (long) capacity * SLOT_SIZE);
+        channel.force(true);
+        this.buffer.putInt(8, capacity);
+        this.buffer.put(5, (byte) (checksums ? 1 : 0));
+        this.buffer.put(4, VERSION);
+        this.buffer.putInt(0, MAGIC);
+        this.buffer.force();
+      } else {
+        if (header.position() != HEADER || header.getInt(0) != MAGIC) {
+          throw new IOException("Not a session store: " + path);
+        }
+        if (header.get(4) != VERSION) {
+          throw new IOException("Unsupported session store version " + header.get(4));
+        }
+        capacity = header.getInt(8);
+        checksums = header.get(5) != 0;
+        if (capacity < 1 || channel.size() != HEADER + (long) capacity * SLOT_SIZE) {
+          throw new IOException("Session store has the wrong size: " + path);
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      }
+    }
+    this.capacity = capacity;
+    this.checksums = checksums;
+    for (int i = 0; i < LOCKS; i++) {
+      this.locks[i] = new ReentrantLock();
+    }
+    ProgramCache programs = new ProgramCache(4096);
+    this.workers = ThreadLocal.withInitial(() -> new SlotWorker(programs));
+    this.checksummers = ThreadLocal.withInitial(() -> new Checksummer(this.buffer));
+    this.free = new int[capacity];
+    for (int id = capacity - 1; id >= 0; id--) {
+      if (this.buffer.getInt(slot(id)) == 0) {
+        this.free[this.freeCount++] = id;
+      }
+    }
+    if (forceMillis > 0) {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "srpn-store");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.scheduler.scheduleAtFixedRate(this::force, forceMillis, forceMillis,
+          TimeUnit.MILLISECONDS);
+    } else {
+      this.scheduler = null;
+    }
+  }
+
+  /**
+   * Open a new session in the lowest free slot, with an empty stack and the list of randoms at
+   * its start.
+   *
+   * @return the id of the session
+   * @throws IllegalStateException if every slot holds a session
+   */
+  public int open() {
+    int id;
+    synchronized (this) {
+      if (this.freeCount == 0) {
+        throw new IllegalStateException("Session store is full");
+      }
+      id = this.free[--this.freeCount];
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      this.buffer.putInt(slot(id) + ID, id);
+      this.buffer.putInt(slot(id) + GENERATION, this.buffer.getInt(slot(id) + GENERATION) + 1);
+      this.worker(id).initialise(this.buffer, slot(id) + SNAPSHOT);
+      this.seal(id);
+      // the slot is only marked in use once its snapshot is complete
+      this.buffer.putInt(slot(id), 1);
+    } finally {
+      lock.unlock();
+    }
+    return id;
+  }
+
+  /**
+   * Close a session, discarding its state and making its slot available to new sessions. A session
+   * whose slot fails its checksum can be closed.
+   *
+   * @param id The id of the session
+   * @return true if the session was open
+   */
+  public boolean close(int id) {
+    if (id < 0 || id >= this.capacity) {
+      return false;
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      if (this.buffer.getInt(slot(id)) == 0) {
+        return false;
+      }
+      // a session cannot be closed by the listener of its own command
+      this.worker(id);
+      this.buffer.putInt(slot(id), 0);
+    } finally {
+      lock.unlock();
+    }
+    synchronized (this) {
+      this.free[this.freeCount++] = id;
+    }
+    return true;
+  }
+
+  /**
+   * Reset a session to an empty stack with the list of randoms at its start, keeping its id and
+   * generation. A session whose slot fails its checksum, or holds another id, is recovered this
+   * way.
+   *
+   * @param id The id of the session
+   * @return true if the session was open
+   */
+  public boolean reset(int id) {
+    if (id < 0 || id >= this.capacity) {
+      return false;
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      if (this.buffer.getInt(slot(id)) == 0) {
+        return false;
+      }
+      SlotWorker worker = this.worker(id);
+      this.buffer.putInt(slot(id) + ID, id);
+      worker.initialise(this.buffer, slot(id) + SNAPSHOT);
+      this.seal(id);
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Check whether a slot holds a session, such as one opened before a restart.
+   *
+   * @param id The id of the session
+   * @return true if the session is open
+   */
+  public boolean isOpen(int id) {
+    if (id < 0 || id >= this.capacity) {
+      return false;
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      return this.buffer.getInt(slot(id)) != 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the generation of a session, the number of sessions opened in its slot up to and including
+   * it, which is unchanged by a restart and differs once the id has been closed and reused.
+   *
+   * @param id The id of the session
+   * @return the generation of the session, or 0 if it is not open
+   */
+  public int generation(int id) {
+    if (id < 0 || id >= this.capacity) {
+      return 0;
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      return this.buffer.getInt(slot(id)) != 0 ? this.buffer.getInt(slot(id) + GENERATION) : 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Process a command for a session, reporting its results, errors and displayed stacks to a
+   * listener on the calling thread.
+   *
+   * @param id The id of the session
+   * @param command The command to be processed
+   * @param listener The listener the events of the command are reported to
+   * @throws IllegalArgumentException if there is no open session with the id
+   * @throws IllegalStateException if the slot of the session fails its checksum or holds another
+   *     id, until the session is reset or closed, or if the session is evaluating a command on
+   *     this thread, from which the listener called back into the store
+   */
+  public void evaluate(int id, String command, SrpnListener listener) {
+    if (id < 0 || id >= this.capacity) {
+      throw new IllegalArgumentException("No session " + id);
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      if (this.buffer.getInt(slot(id)) == 0) {
+        throw new IllegalArgumentException("No session " + id);
+      }
+      if (this.checksums && this.buffer.getInt(slot(id) + CRC) != this.checksum(slot(id))) {
+        throw new IllegalStateException("Session " + id + " fails its checksum");
+      }
+      if (this.buffer.getInt(slot(id) + ID) != id) {
+        throw new IllegalStateException("Slot " + id + " holds session "
+            + this.buffer.getInt(slot(id) + ID));
+      }
+      try {
+        this.worker(id).evaluate(this.buffer, slot(id) + SNAPSHOT, command, listener);
+      } finally {
+        this.seal(id);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of open sessions.
+   *
+   * @return the number of sessions
+   */
+  public synchronized int sessions() {
+    return this.capacity - this.freeCount;
+  }
+
+  /**
+   * Get the number of slots in the store.
+   *
+   * @return the largest number of sessions the store can hold
+   */
+  public int capacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Force all changes to the sessions to disk.
+   */
+  public void force() {
+    this.buffer.force();
+  }
+
+  /**
+   * Stop forcing the file at an interval and force it a final time. The mapping is released when
+   * the store is garbage collected.
+   */
+  @Override
+  public void close() {
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+    }
+    this.force();
+  }
+
+  /**
+   * Update the checksum of the slot of a session, if slots are checksummed.
+   *
+   * @param id The id of the session
+   */
+  private void seal(int id) {
+    if (this.checksums) {
+      this.buffer.putInt(slot(id) + CRC, this.checksum(slot(id)));
+    }
+  }
+
+  /**
+   * Compute the checksum of a slot.
+   *
+   * @param slot The index of the first byte of the slot
+   * @return the CRC-32 of the slot
+   */
+  private int checksum(int slot) {
+    return this.checksummers.get().checksum(slot);
+  }
+
+  /**
+   * Check whether the bytes read into a buffer, if any, are all zeros.
+   *
+   * @param buffer The buffer, with its position after the bytes read
+   * @return true if every byte read is 0
+   */
+  private static boolean isZero(ByteBuffer buffer) {
+    for (int i = 0; i < buffer.position(); i++) {
+      if (buffer.get(i) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get an idle worker of the calling thread for the slot of a session.
+   *
+   * @param id The id of the session
+   * @return the worker
+   * @throws IllegalStateException if the session is evaluating a command on this thread
+   */
+  private SlotWorker worker(int id) {
+    return this.workers.get().acquire(this.buffer, slot(id) + SNAPSHOT);
+  }
+
+  /**
+   * Get the lock serializing the commands of a session.
+   *
+   * @param id The id of the session
+   * @return the lock of the session
+   */
+  private ReentrantLock lock(int id) {
+    return this.locks[id & (LOCKS - 1)];
+  }
+
+  /**
+   * Get the offset of the slot of a session within the file.
+   *
+   * @param id The id of the session
+   * @return the index of the first byte of the slot
+   */
+  private static int slot(int id) {
+    return HEADER + id * SLOT_SIZE;
+  }
+}
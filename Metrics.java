@@ -0,0 +1,189 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics counts the operators executed and errors reported by calculators, and records how long
+ * each line takes to process.
+ * <p>
+ * All counters are striped, so a single registry can be shared by calculators on many threads.
+ * Metrics can be exposed over JMX with {@link #register(String)} and written out periodically as
+ * text with {@link #startDump(PrintStream, long)}.
+ *
+ * @see SRPN#setObserver(ExecutionObserver)
+ */
+public final class Metrics implements ExecutionObserver, MetricsMXBean {
+
+  /**
+   * The number of times each operator has been executed, indexed by ordinal.
+   */
+  private final LongAdder[] operators = new LongAdder[Opcode.VALUES.length];
+
+  /**
+   * The number of times each error has been reported, indexed by ordinal.
+   */
+  private final LongAdder[] errors = new LongAdder[ErrorCode.values().length];
+
+  /**
+   * The time taken to process each line.
+   */
+  private final LatencyHistogram lines = new LatencyHistogram();
+
+  /**
+   * Create a registry with all counts at 0.
+   */
+  public Metrics() {
+    for (int i = 0; i < this.operators.length; i++) {
+      this.operators[i] = new LongAdder();
+    }
+    for (int i = 0; i < this.errors.length; i++) {
+      this.errors[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void onOperator(Opcode opcode) {
+    this.operators[opcode.ordinal()].increment();
+  }
+
+  @Override
+  public void onError(ErrorCode error) {
+    this.errors[error.ordinal()].increment();
+  }
+
+  @Override
+  public void onLine(long nanos) {
+    this.lines.record(nanos);
+  }
+
+  /**
+   * Get the number of times an operator has been executed.
+   *
+   * @param opcode The operator to be counted
+   * @return the number of times the operator has been executed
+   */
+  public long count(Opcode opcode) {
+    return this.operators[opcode.ordinal()].sum();
+  }
+
+  /**
+   * Get the number of times an error has been reported.
+   *
+   * @param error The error to be counted
+   * @return the number of times the error has been reported
+   */
+  public long count(ErrorCode error) {
+    return this.errors[error.ordinal()].sum();
+  }
+
+  /**
+   * Get the histogram of the time taken to process each line.
+   *
+   * @return the line latency histogram
+   */
+  public LatencyHistogram lineLatency() {
+    return this.lines;
+  }
+
+  @Override
+  public Map<String, Long> getOperatorCounts() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Opcode opcode : Opcode.VALUES) {
+      counts.put(opcode.name(), this.count(opcode));
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getErrorCounts() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (ErrorCode error : ErrorCode.values()) {
+      counts.put(error.name(), this.count(error));
+    }
+    return counts;
+  }
+
+  @Override
+  public long getLines() {
+    return this.lines.count();
+  }
+
+  @Override
+  public double getMeanLineNanos() {
+    return this.lines.mean();
+  }
+
+  @Override
+  public long getP50LineNanos() {
+    return this.lines.percentile(50);
+  }
+
+  @Override
+  public long getP99LineNanos() {
+    return this.lines.percentile(99);
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder counter : this.operators) {
+      counter.reset();
+    }
+    for (LongAdder counter : this.errors) {
+      counter.reset();
+    }
+    this.lines.reset();
+  }
+
+  /**
+   * Expose the metrics over JMX through the platform MBean server.
+   *
+   * @param name The name distinguishing this registry from others in the same JVM
+   * @throws JMException if the metrics could not be registered
+   */
+  public void register(String name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer()
+        .registerMBean(this, new ObjectName("srpn:type=Metrics,name=" + ObjectName.quote(name)));
+  }
+
+  /**
+   * Write the metrics to a stream at a fixed interval, from a daemon thread.
+   *
+   * @param out The stream the metrics are written to
+   * @param periodSeconds The number of seconds between each dump
+   * @return the scheduler writing the metrics, which can be shut down to stop it
+   */
+  public ScheduledExecutorService startDump(PrintStream out, long periodSeconds) {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "srpn-metrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(() -> out.println(this.dump()), periodSeconds, periodSeconds,
+        TimeUnit.SECONDS);
+    return scheduler;
+  }
+
+  /**
+   * Describe the metrics as text.
+   *
+   * @return the lines, operator counts and error counts recorded so far
+   */
+  public String dump() {
+    StringBuilder text = new StringBuilder("lines: ").append(this.lines).append("\noperators:");
+    for (Opcode opcode : Opcode.VALUES) {
+      text.append(' ').append(opcode.name()).append('=').append(this.count(opcode));
+    }
+    text.append("\nerrors:");
+    for (ErrorCode error : ErrorCode.values()) {
+      text.append(' ').append(error.name()).append('=').append(this.count(error));
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,54 @@
+import java.util.Map;
+
+/**
+ * MetricsMXBean is the management interface through which {@link Metrics} are exposed over JMX.
+ */
+public interface MetricsMXBean {
+
+  /**
+   * Get the number of times each operator has been executed.
+   *
+   * @return the count of each operator, keyed by opcode name
+   */
+  Map<String, Long> getOperatorCounts();
+
+  /**
+   * Get the number of times each error has been reported.
+   *
+   * @return the count of each error, keyed by error name
+   */
+  Map<String, Long> getErrorCounts();
+
+  /**
+   * Get the number of lines processed.
+   *
+   * @return the number of lines processed
+   */
+  long getLines();
+
+  /**
+   * Get the mean time taken to process a line.
+   *
+   * @return the mean line latency in nanoseconds
+   */
+  double getMeanLineNanos();
+
+  /**
+   * Get the median time taken to process a line.
+   *
+   * @return the estimated 50th percentile of line latency in nanoseconds
+   */
+  long getP50LineNanos();
+
+  /**
+   * Get the 99th percentile of the time taken to process a line.
+   *
+   * @return the estimated 99th percentile of line latency in nanoseconds
+   */
+  long getP99LineNanos();
+
+  /**
+   * Discard all counts and latencies recorded so far.
+   */
+  void reset();
+}
@@ -0,0 +1,23 @@
+/**
+ * NullOutputSink discards all output, for use when only the state of a calculator matters (e.g.
+ * benchmarks).
+ */
+public final class NullOutputSink implements OutputSink {
+
+  /**
+   * A shared instance, as the sink holds no state.
+   */
+  public static final NullOutputSink INSTANCE = new NullOutputSink();
+
+  @Override
+  public void println(int value) {
+  }
+
+  @Override
+  public void println(String line) {
+  }
+
+  @Override
+  public void flush() {
+  }
+}
@@ -0,0 +1,250 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OffHeapSessionStore holds the state of a very large number of calculator sessions outside the
+ * Java heap, so that idle sessions cost the garbage collector nothing.
+ * <p>
+ * The state of each session is a {@link Snapshot} of {@link Snapshot#SIZE} bytes, kept in a slot
+ * of a direct buffer. Buffers are allocated in slabs of {@link #SLOTS_PER_SLAB} slots as the store
+ * grows, and a session is addressed by an int id that is the index of its slot, so looking one up
+ * is a shift and a mask. The slots of closed sessions are reused before the store grows again;
+ * slabs are never released.
+ * <p>
+ * Commands are evaluated by a calculator kept per thread, which loads the slot of the session,
+ * processes the command and stores the state back. Commands for different sessions run in
+ * parallel, while commands for one session are serialized by a lock chosen by its id, a
+ * ReentrantLock so that a virtual thread waiting for it does not pin its carrier. A listener may
+ * evaluate commands for other sessions, but not for the session whose command it is listening to.
+ * <p>
+ * Direct buffers are limited by {@code -XX:MaxDirectMemorySize}, which must allow for
+ * {@link Snapshot#SIZE} bytes per session.
+ */
+public final class OffHeapSessionStore {
+
+  /**
+   * The number of bits of an id that select a slot within its slab.
+   */
+  private static final int SLAB_BITS = 16;
+
+  /**
+   * The number of slots in each slab.
+   */
+  public static final int SLOTS_PER_SLAB = 1 << SLAB_BITS;
+
+  /**
+   * The number of locks sessions are spread over.
+   */
+  private static final int LOCKS = 256;
+
+  /**
+   * The slabs of slots, in order of id. The array is replaced, never modified, when the store
+   * grows.
+   */
+  private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+  /**
+   * The locks serializing the commands of each session.
+   */
+  private final ReentrantLock[] locks = new ReentrantLock[LOCKS];
+
+  /**
+   * The cache of compiled programs shared by every session.
+   */
+  private final ProgramCache programs = new ProgramCache(4096);
+
+  /**
+   * The calculator each thread evaluates commands with.
+   */
+  private final ThreadLocal<SlotWorker> workers =
+      ThreadLocal.withInitial(() -> new SlotWorker(this.programs));
+
+  /**
+   * The ids of closed sessions whose slots can be reused, guarded by the store's monitor.
+   */
+  private int[] free = new int[16];
+
+  /**
+   * The number of ids in the free list, guarded by the store's monitor.
+   */
+  private int freeCount = 0;
+
+  /**
+   * The lowest id that has never been used, written under the store's monitor after the slab
+   * holding the id has been allocated.
+   */
+  private volatile int next = 0;
+
+  /**
+   * The number of open sessions, guarded by the store's monitor.
+   */
+  private int open = 0;
+
+  /**
+   * Create an empty store.
+   */
+  public OffHeapSessionStore() {
+    for (int i = 0; i < LOCKS; i++) {
+      this.locks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Open a new session, with an empty stack and the list of randoms at its start.
+   *
+   * @return the id of the session
+   * @throws IllegalStateException if the store cannot address any more sessions
+   */
+  public int open() {
+    int id;
+    synchronized (this) {
+      if (this.freeCount > 0) {
+        id = this.free[--this.freeCount];
+      } else {
+        if (this.next == Integer.MAX_VALUE) {
+          throw new IllegalStateException("Session store is full");
+        }
+        id = this.next;
+        if (id >>> SLAB_BITS == this.slabs.length) {
+          ByteBuffer[] slabs = Arrays.copyOf(this.slabs, this.slabs.length + 1);
+          slabs[this.slabs.length] = ByteBuffer.allocateDirect(SLOTS_PER_SLAB * Snapshot.SIZE)
+              .order(ByteOrder.nativeOrder());
+          this.slabs = slabs;
+        }
+        this.next = id + 1;
+      }
+      this.open++;
+    }
+    // the monitor is released first, as a listener holding a session's lock may open a session
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      this.worker(id).initialise(this.slab(id), offset(id));
+    } finally {
+      lock.unlock();
+    }
+    return id;
+  }
+
+  /**
+   * Close a session, discarding its state and making its id available to new sessions.
+   *
+   * @param id The id of the session
+   * @return true if the session was open
+   */
+  public boolean close(int id) {
+    if (id < 0 || id >= this.next) {
+      return false;
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      ByteBuffer slab = this.slab(id);
+      if (!Snapshot.present(slab, offset(id))) {
+        return false;
+      }
+      // a session cannot be closed by the listener of its own command
+      this.worker(id);
+      Snapshot.erase(slab, offset(id));
+    } finally {
+      lock.unlock();
+    }
+    synchronized (this) {
+      if (this.freeCount == this.free.length) {
+        this.free = Arrays.copyOf(this.free, this.free.length * 2);
+      }
+      this.free[this.freeCount++] = id;
+      this.open--;
+    }
+    return true;
+  }
+
+  /**
+   * Process a command for a session, reporting its results, errors and displayed stacks to a
+   * listener on the calling thread.
+   *
+   * @param id The id of the session
+   * @param command The command to be processed
+   * @param listener The listener the events of the command are reported to
+   * @throws IllegalArgumentException if there is no open session with the id
+   * @throws IllegalStateException if the session is evaluating a command on this thread, from
+   *     which the listener called back into the store
+   */
+  public void evaluate(int id, String command, SrpnListener listener) {
+    if (id < 0 || id >= this.next) {
+      throw new IllegalArgumentException("No session " + id);
+    }
+    ReentrantLock lock = this.lock(id);
+    lock.lock();
+    try {
+      ByteBuffer slab = this.slab(id);
+      if (!Snapshot.present(slab, offset(id))) {
+        throw new IllegalArgumentException("No session " + id);
+      }
+      this.worker(id).evaluate(slab, offset(id), command, listener);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of open sessions.
+   *
+   * @return the number of sessions
+   */
+  public synchronized int sessions() {
+    return this.open;
+  }
+
+  /**
+   * Get the number of bytes of direct memory allocated to slots.
+   *
+   * @return the size of all slabs in bytes
+   */
+  public long capacityBytes() {
+    return (long) this.slabs.length * SLOTS_PER_SLAB * Snapshot.SIZE;
+  }
+
+  /**
+   * Get the slab holding the slot of a session.
+   *
+   * @param id The id of the session
+   * @return the slab of the session
+   */
+  private ByteBuffer slab(int id) {
+    return this.slabs[id >>> SLAB_BITS];
+  }
+
+  /**
+   * Get an idle worker of the calling thread for the slot of a session.
+   *
+   * @param id The id of the session
+   * @return the worker
+   * @throws IllegalStateException if the session is evaluating a command on this thread
+   */
+  private SlotWorker worker(int id) {
+    return this.workers.get().acquire(this.slab(id), offset(id));
+  }
+
+  /**
+   * Get the lock serializing the commands of a session.
+   *
+   * @param id The id of the session
+   * @return the lock of the session
+   */
+  private ReentrantLock lock(int id) {
+    return this.locks[id & (LOCKS - 1)];
+  }
+
+  /**
+   * Get the offset of the slot of a session within its slab.
+   *
+   * @param id The id of the session
+   * @return the index of the first byte of the slot
+   */
+  private static int offset(int id) {
+    return (id & (SLOTS_PER_SLAB - 1)) * Snapshot.SIZE;
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Opcode enumerates the operators understood by {@link SRPN}.
+ * <p>
+ * Each token is resolved once into a compact integer code holding the ordinal of its opcode and a
+ * {@link #PRINT} flag. The flag marks the compound operators (e.g. +=), which display the value at
+ * the top of the stack before applying their base operator.
+ */
+public enum Opcode {
+  EQUALS('=', 0, 0),
+  ADD('+', 2, 1),
+  SUBTRACT('-', 2, 1),
+  MULTIPLY('*', 2, 1),
+  DIVIDE('/', 2, 1),
+  MOD('%', 2, 1),
+  POWER('^', 2, 1),
+  DISPLAY('d', 0, 0),
+  RANDOM('r', 0, 1);
+
+  /**
+   * The flag set in a resolved code for an operator that displays the top of the stack first.
+   */
+  static final int PRINT = 1;
+
+  /**
+   * The code returned when a token is not a recognised operator.
+   */
+  static final int UNRECOGNISED = -1;
+
+  /**
+   * The opcodes indexed by ordinal, to avoid copying the array returned by values().
+   */
+  static final Opcode[] VALUES = values();
+
+  /**
+   * The opcodes indexed by the character of their symbol.
+   */
+  private static final Opcode[] BY_SYMBOL = new Opcode[128];
+
+  static {
+    for (Opcode opcode : VALUES) {
+      BY_SYMBOL[opcode.symbol] = opcode;
+    }
+  }
+
+  /**
+   * The character used to enter the operator.
+   */
+  final char symbol;
+
+  /**
+   * The number of operands the operator takes from the stack.
+   */
+  final int operands;
+
+  /**
+   * The number of values the operator adds to the stack when it succeeds.
+   */
+  final int results;
+
+  Opcode(char symbol, int operands, int results) {
+    this.symbol = symbol;
+    this.operands = operands;
+    this.results = results;
+  }
+
+  /**
+   * Resolve a token into a code for the interpreter.
+   *
+   * @param token The token to be resolved
+   * @return the ordinal of the opcode shifted left by one, with the {@link #PRINT} flag set for
+   *     compound operators, or {@link #UNRECOGNISED} if the token is not an operator
+   */
+  static int resolve(CharSequence token) {
+    int length = token.length();
+    if (length == 0 || length > 2 || token.charAt(0) >= BY_SYMBOL.length) {
+      return UNRECOGNISED;
+    }
+    Opcode opcode = BY_SYMBOL[token.charAt(0)];
+    if (opcode == null) {
+      return UNRECOGNISED;
+    } else if (length == 1) {
+      return opcode.ordinal() << 1;
+    } else if (token.charAt(1) == '=' && opcode.operands == 2) {
+      return opcode.ordinal() << 1 | PRINT;
+    } else {
+      return UNRECOGNISED;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Optimizer folds the literal-only subexpressions of a compiled {@link Program} into single
+ * instructions that push their result.
+ * <p>
+ * A push of a literal, or of an already folded result, followed by another and then a binary
+ * operator is replaced by a {@link Instruction.Kind#FOLDED} instruction, using the same saturating
+ * arithmetic as the calculator. Folding repeats through the program, so 3 4 * 2 + becomes a single
+ * push of 14. Folding never crosses an instruction with a visible effect: compound operators,
+ * = and d display values, r advances the randoms, unrecognised tokens print an error, and a
+ * division or modulo division by 0 leaves its operands on the stack with an error.
+ * <p>
+ * Whether a push overflows the stack depends on the depth of the stack when the program is run, so
+ * a folded instruction keeps its original sequence and the number of values that sequence holds on
+ * the stack at once. The calculator runs the original sequence instead whenever the stack does not
+ * have room for it, so that overflow errors are reported exactly as before.
+ *
+ * @see SRPN#execute(Program)
+ */
+final class Optimizer {
+
+  private Optimizer() {
+  }
+
+  /**
+   * Fold the literal-only subexpressions of a program.
+   *
+   * @param program The program to be optimized
+   * @return an equivalent program, or the same program if nothing could be folded
+   */
+  static Program optimize(Program program) {
+    Instruction[] instructions = new Instruction[program.size()];
+    int size = 0;
+    for (int i = 0; i < program.size(); i++) {
+      Instruction instruction = program.get(i);
+      if (size >= 2 && isConstant(instructions[size - 2]) && isConstant(instructions[size - 1])) {
+        Instruction folded = fold(instructions[size - 2], instructions[size - 1], instruction);
+        if (folded != null) {
+          instructions[size - 2] = folded;
+          size--;
+          continue;
+        }
+      }
+      instructions[size++] = instruction;
+    }
+    if (size == program.size()) {
+      return program;
+    }
+    return new Program(program.source(), Arrays.copyOf(instructions, size),
+        program.eliminated() + program.size() - size);
+  }
+
+  /**
+   * Check whether an instruction pushes a value known before the program is run.
+   *
+   * @param instruction The instruction to be checked
+   * @return true if the instruction is a push of a literal or of a folded result
+   */
+  private static boolean isConstant(Instruction instruction) {
+    return instruction.kind == Instruction.Kind.PUSH || instruction.kind == Instruction.Kind.FOLDED;
+  }
+
+  /**
+   * Fold two constant operands and an operator into a single instruction.
+   *
+   * @param first The instruction pushing the first operand
+   * @param second The instruction pushing the second operand
+   * @param operator The instruction following the operands
+   * @return the folded instruction, or null if the instructions cannot be folded
+   */
+  private static Instruction fold(Instruction first, Instruction second, Instruction operator) {
+    if (operator.kind != Instruction.Kind.OPERATOR || (operator.code & Opcode.PRINT) != 0
+        || operator.operands() != 2) {
+      return null;
+    }
+    int operand1 = first.operand;
+    int operand2 = second.operand;
+    int result;
+    switch (operator.opcode()) {
+      case ADD:
+        result = SRPN.saturate((long) operand1 + operand2);
+        break;
+
+      case SUBTRACT:
+        result = SRPN.saturate((long) operand1 - operand2);
+        break;
+
+      case MULTIPLY:
+        result = SRPN.saturate((long) operand1 * operand2);
+        break;
+
+      case DIVIDE:
+        if (operand2 == 0) {
+          return null;
+        }
+        result = SRPN.saturate((long) operand1 / operand2);
+        break;
+
+      case MOD:
+        if (operand2 == 0) {
+          return null;
+        }
+        result = operand1 % operand2;
+        break;
+
+      case POWER:
+        result = SRPN.saturate(IntMath.power(operand1, operand2));
+        break;
+
+      default:
+        return null;
+    }
+    Instruction[] firstSequence = sequence(first);
+    Instruction[] secondSequence = sequence(second);
+    Instruction[] sequence = new Instruction[firstSequence.length + secondSequence.length + 1];
+    System.arraycopy(firstSequence, 0, sequence, 0, firstSequence.length);
+    System.arraycopy(secondSequence, 0, sequence, firstSequence.length, secondSequence.length);
+    sequence[sequence.length - 1] = operator;
+    // the second operand is pushed on top of the first
+    int headroom = Math.max(first.headroom, 1 + second.headroom);
+    return Instruction.folded(result, headroom, sequence);
+  }
+
+  /**
+   * Get the pushes and operators that an operand instruction stands for.
+   *
+   * @param instruction A push of a literal or of a folded result
+   * @return the original sequence of the instruction
+   */
+  private static Instruction[] sequence(Instruction instruction) {
+    return instruction.kind == Instruction.Kind.FOLDED
+        ? instruction.folded : new Instruction[] {instruction};
+  }
+}
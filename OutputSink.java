@@ -0,0 +1,28 @@
+/**
+ * OutputSink receives the lines of output produced by {@link SRPN} through a
+ * {@link ConsoleListener}.
+ * <p>
+ * Implementations decide when and whether output is written, so that results can be buffered,
+ * discarded or collected instead of being written straight to the console.
+ */
+public interface OutputSink {
+
+  /**
+   * Output an integer on its own line.
+   *
+   * @param value The value to be output
+   */
+  void println(int value);
+
+  /**
+   * Output a line of text.
+   *
+   * @param line The text to be output, without a line separator
+   */
+  void println(String line);
+
+  /**
+   * Write any buffered output to its destination.
+   */
+  void flush();
+}
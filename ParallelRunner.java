@@ -0,0 +1,244 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ParallelRunner evaluates many independent scripts at once, each in its own {@link SRPN}
+ * session, on a work-stealing pool.
+ * <p>
+ * The output of each script is either written to its own file (the name of the script with .out
+ * appended) in an output directory, or merged into a single stream in the order the scripts were
+ * given, regardless of the order in which they finish. Scripts whose output files would have the
+ * same name, such as scripts of the same name in different directories, are rejected before any
+ * is evaluated.
+ */
+final class ParallelRunner {
+
+  /**
+   * The pool that scripts are evaluated on.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * The outcome of evaluating a set of scripts.
+   */
+  static final class Summary {
+
+    /**
+     * The number of scripts evaluated successfully.
+     */
+    int scripts = 0;
+
+    /**
+     * The number of scripts that could not be read or written.
+     */
+    int failures = 0;
+
+    /**
+     * The number of lines evaluated across all scripts.
+     */
+    long lines = 0;
+
+    /**
+     * The time taken to evaluate all scripts, in nanoseconds.
+     */
+    long elapsedNanos = 0;
+
+    /**
+     * The total time spent evaluating each script, in nanoseconds.
+     */
+    long busyNanos = 0;
+
+    @Override
+    public String toString() {
+      double seconds = this.elapsedNanos / 1e9;
+      return String.format("scripts=%d failures=%d lines=%d elapsed=%.3fs busy=%.3fs "
+              + "lines/s=%.0f speedup=%.1fx", this.scripts, this.failures, this.lines, seconds,
+          this.busyNanos / 1e9, this.lines / seconds, (double) this.busyNanos / this.elapsedNanos);
+    }
+  }
+
+  /**
+   * The outcome of evaluating a single script.
+   */
+  private static final class Result {
+
+    /**
+     * The number of lines in the script.
+     */
+    long lines;
+
+    /**
+     * The time taken to evaluate the script, in nanoseconds.
+     */
+    long nanos;
+
+    /**
+     * The output of the script when it is merged with the output of other scripts.
+     */
+    byte[] output;
+  }
+
+  /**
+   * Create a runner with a given number of worker threads.
+   *
+   * @param parallelism The number of scripts evaluated at the same time
+   */
+  ParallelRunner(int parallelism) {
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Expand a list of scripts and directories into a list of scripts. The files in a directory are
+   * included in order of name.
+   *
+   * @param paths The scripts and directories of scripts
+   * @return the scripts to be evaluated
+   * @throws IOException if a directory could not be listed
+   */
+  static List<Path> expand(List<Path> paths) throws IOException {
+    List<Path> scripts = new ArrayList<>();
+    for (Path path : paths) {
+      if (Files.isDirectory(path)) {
+        try (Stream<Path> files = Files.list(path)) {
+          scripts.addAll(files.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+        }
+      } else {
+        scripts.add(path);
+      }
+    }
+    return scripts;
+  }
+
+  /**
+   * Evaluate a list of scripts.
+   *
+   * @param scripts The scripts to be evaluated
+   * @param outputDirectory The directory each script's output is written to, or null to merge the
+   *     output of all scripts
+   * @param merged The stream merged output is written to, in the order of the scripts
+   * @return the outcome of evaluating the scripts
+   * @throws IOException if merged output could not be written, or two scripts would write the same
+   *     output file
+   */
+  Summary run(List<Path> scripts, Path outputDirectory, OutputStream merged) throws IOException {
+    if (outputDirectory != null) {
+      checkOutputNames(scripts);
+    }
+    Summary summary = new Summary();
+    long start = System.nanoTime();
+    List<Future<Result>> results = new ArrayList<>(scripts.size());
+    for (Path script : scripts) {
+      results.add(this.pool.submit(() -> evaluate(script, outputDirectory)));
+    }
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        Result result = results.get(i).get();
+        summary.scripts++;
+        summary.lines += result.lines;
+        summary.busyNanos += result.nanos;
+        if (result.output != null) {
+          merged.write(result.output);
+        }
+      } catch (ExecutionException e) {
+        summary.failures++;
+        Throwable cause = e.getCause();
+        System.err.println(scripts.get(i) + ": "
+            + (cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while evaluating scripts", e);
+      }
+    }
+    merged.flush();
+    summary.elapsedNanos = System.nanoTime() - start;
+    return summary;
+  }
+
+  /**
+   * Stop the worker threads once all submitted scripts have been evaluated.
+   */
+  void shutdown() {
+    this.pool.shutdown();
+  }
+
+  /**
+   * Check that no two scripts would write their output to the same file.
+   *
+   * @param scripts The scripts to be evaluated
+   * @throws IOException if two scripts have the same output file
+   */
+  private static void checkOutputNames(List<Path> scripts) throws IOException {
+    Map<String, Path> names = new HashMap<>();
+    for (Path script : scripts) {
+      String name = outputName(script);
+      Path other = names.putIfAbsent(name, script);
+      if (other != null) {
+        throw new IOException(other + " and " + script + " would both be written to " + name);
+      }
+    }
+  }
+
+  /**
+   * Get the name of the file the output of a script is written to.
+   *
+   * @param script The script
+   * @return the name of the output file
+   */
+  private static String outputName(Path script) {
+    return script.getFileName() + ".out";
+  }
+
+  /**
+   * Evaluate a single script in a new session.
+   *
+   * @param script The script to be evaluated
+   * @param outputDirectory The directory the output is written to, or null to keep it in memory
+   * @return the outcome of evaluating the script
+   * @throws IOException if the script could not be read or its output could not be written
+   */
+  private static Result evaluate(Path script, Path outputDirectory) throws IOException {
+    long start = System.nanoTime();
+    Result result = new Result();
+    ByteArrayOutputStream buffer = null;
+    OutputStream stream;
+    if (outputDirectory != null) {
+      stream = Files.newOutputStream(outputDirectory.resolve(outputName(script)));
+    } else {
+      buffer = new ByteArrayOutputStream();
+      stream = buffer;
+    }
+    try (stream) {
+      BufferedOutputSink out = new BufferedOutputSink(stream);
+      SRPN srpn = new SRPN(out);
+      try {
+        result.lines = MappedScript.forEachLine(script, line -> {
+          srpn.interpret(line);
+          return true;
+        });
+      } finally {
+        // the output of the lines before a command that throws is kept
+        out.flush();
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    if (buffer != null) {
+      result.output = buffer.toByteArray();
+    }
+    result.nanos = System.nanoTime() - start;
+    return result;
+  }
+}
@@ -0,0 +1,159 @@
+import java.util.Arrays;
+
+/**
+ * Program is a line of input compiled into an immutable sequence of {@link Instruction}s.
+ * <p>
+ * Executing a program against a calculator has exactly the same effect as processing the line it
+ * was compiled from, so a program can be reused whenever the same line is entered again.
+ *
+ * @see SRPN#execute(Program)
+ */
+final class Program {
+
+  /**
+   * The line the program was compiled from.
+   */
+  private final String source;
+
+  /**
+   * The instructions of the program, in the order they are executed.
+   */
+  private final Instruction[] instructions;
+
+  /**
+   * The number of instructions removed from the program by the {@link Optimizer}.
+   */
+  private final int eliminated;
+
+  /**
+   * The number of times the program has been executed by the interpreter, counted until it reaches
+   * the threshold for compilation. Updates from different threads may be lost, which only delays
+   * compilation.
+   */
+  private int executions = 0;
+
+  /**
+   * The program compiled to bytecode, or null if it has not been compiled.
+   */
+  private volatile CompiledProgram compiled = null;
+
+  /**
+   * Whether the program has been found to be unsuitable for compilation.
+   */
+  private volatile boolean uncompilable = false;
+
+  /**
+   * Create a program from a sequence of instructions.
+   *
+   * @param source The line the program was compiled from
+   * @param instructions The instructions of the program, which must not be modified afterwards
+   */
+  Program(String source, Instruction[] instructions) {
+    this(source, instructions, 0);
+  }
+
+  /**
+   * Create an optimized program from a sequence of instructions.
+   *
+   * @param source The line the program was compiled from
+   * @param instructions The instructions of the program, which must not be modified afterwards
+   * @param eliminated The number of instructions removed by optimization
+   */
+  Program(String source, Instruction[] instructions, int eliminated) {
+    this.source = source;
+    this.instructions = instructions;
+    this.eliminated = eliminated;
+  }
+
+  /**
+   * Compile a line of input into a program.
+   *
+   * @param line The line to be compiled
+   * @param lexer The lexer used to split the line into tokens
+   * @return the compiled program
+   */
+  static Program compile(String line, Lexer lexer) {
+    Instruction[] instructions = new Instruction[8];
+    int size = 0;
+    lexer.reset(line);
+    while (lexer.next()) {
+      if (size == instructions.length) {
+        instructions = Arrays.copyOf(instructions, size * 2);
+      }
+      if (lexer.isNumber()) {
+        instructions[size++] = Instruction.push(lexer.intValue());
+      } else if (lexer.code() != Opcode.UNRECOGNISED) {
+        instructions[size++] = Instruction.operator(lexer.code());
+      } else {
+        instructions[size++] = Instruction.unrecognised(lexer.text());
+      }
+    }
+    return new Program(line, Arrays.copyOf(instructions, size));
+  }
+
+  /**
+   * Get the line the program was compiled from.
+   *
+   * @return the source of the program
+   */
+  String source() {
+    return this.source;
+  }
+
+  /**
+   * Get the number of instructions in the program.
+   *
+   * @return the length of the program
+   */
+  int size() {
+    return this.instructions.length;
+  }
+
+  /**
+   * Get the number of instructions removed from the program by optimization.
+   *
+   * @return the number of instructions eliminated
+   */
+  int eliminated() {
+    return this.eliminated;
+  }
+
+  /**
+   * Get an instruction of the program.
+   *
+   * @param index The position of the instruction in the program
+   * @return the instruction at the given position
+   */
+  Instruction get(int index) {
+    return this.instructions[index];
+  }
+
+  /**
+   * Get the program compiled to bytecode, counting an execution and compiling the program once it
+   * has been executed enough times.
+   *
+   * @return the compiled program, or null if the program should be interpreted
+   * @see LineCompiler#THRESHOLD
+   */
+  CompiledProgram compiled() {
+    CompiledProgram compiled = this.compiled;
+    if (compiled != null || this.uncompilable || LineCompiler.THRESHOLD < 0) {
+      return compiled;
+    }
+    if (this.executions < LineCompiler.THRESHOLD) {
+      this.executions++;
+      return null;
+    }
+    compiled = LineCompiler.compile(this);
+    if (compiled == null) {
+      this.uncompilable = true;
+    }
+    this.compiled = compiled;
+    return compiled;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(this.instructions);
+  }
+}
@@ -0,0 +1,215 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ProgramCache keeps the most recently used compiled {@link Program}s, keyed by the line they were
+ * compiled from.
+ * <p>
+ * Programs are optimized by folding literal-only subexpressions when they are compiled. When the
+ * cache is full, the least recently used program is discarded to make room. Hits and misses are
+ * counted so that the effectiveness of the cache can be monitored, along with the number of
+ * instructions eliminated by optimization.
+ * <p>
+ * A cache may be shared between calculators, as programs are immutable. Lines are spread over up to
+ * {@link #SEGMENTS} segments by their hash, each an LRU list of its share of the capacity with a
+ * lock of its own, so sessions on many threads rarely wait for each other. The locks are
+ * {@link ReentrantLock}s rather than monitors, so that a virtual thread waiting for one does not
+ * pin its carrier thread.
+ */
+public final class ProgramCache {
+
+  /**
+   * The default maximum number of programs kept in a cache.
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /**
+   * The largest number of segments a cache is divided into, a power of two.
+   */
+  static final int SEGMENTS = 16;
+
+  /**
+   * The maximum number of programs kept in the cache.
+   */
+  private final int capacity;
+
+  /**
+   * The segments of the cache, a power of two in number.
+   */
+  private final Segment[] segments;
+
+  /**
+   * The number of lookups that found a cached program.
+   */
+  private final LongAdder hits = new LongAdder();
+
+  /**
+   * The number of lookups that had to compile a program.
+   */
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * The number of instructions eliminated from the programs compiled by the cache.
+   */
+  private final LongAdder eliminated = new LongAdder();
+
+  /**
+   * Create a cache with the default capacity.
+   */
+  public ProgramCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a cache with a given capacity.
+   *
+   * @param capacity The maximum number of programs kept in the cache
+   */
+  public ProgramCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    this.capacity = capacity;
+    // as many segments as the capacity allows, up to the limit
+    int count = Math.min(SEGMENTS, Integer.highestOneBit(capacity));
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      this.segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * Get the program for a line, compiling it and adding it to the cache if it is not already
+   * cached.
+   *
+   * @param line The line to be compiled
+   * @return the compiled program for the line
+   */
+  Program get(String line) {
+    int hash = line.hashCode();
+    Segment segment = this.segments[(hash ^ (hash >>> 16)) & (this.segments.length - 1)];
+    segment.lock.lock();
+    try {
+      Program program = segment.programs.get(line);
+      if (program != null) {
+        this.hits.increment();
+      } else {
+        this.misses.increment();
+        program = Optimizer.optimize(Program.compile(line, segment.lexer));
+        this.eliminated.add(program.eliminated());
+        segment.programs.put(line, program);
+      }
+      return program;
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of lookups that found a cached program.
+   *
+   * @return the number of cache hits
+   */
+  public long hits() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Get the number of lookups that had to compile a program.
+   *
+   * @return the number of cache misses
+   */
+  public long misses() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Get the number of instructions eliminated by optimizing the programs compiled by the cache.
+   *
+   * @return the number of instructions folded away
+   */
+  public long eliminated() {
+    return this.eliminated.sum();
+  }
+
+  /**
+   * Get the number of programs currently in the cache.
+   *
+   * @return the size of the cache
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : this.segments) {
+      segment.lock.lock();
+      try {
+        size += segment.programs.size();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Get the maximum number of programs kept in the cache.
+   *
+   * @return the capacity of the cache
+   */
+  public int capacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Discard all cached programs and reset the hit, miss and eliminated instruction counters.
+   */
+  public void clear() {
+    for (Segment segment : this.segments) {
+      segment.lock.lock();
+      try {
+        segment.programs.clear();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    this.hits.reset();
+    this.misses.reset();
+    this.eliminated.reset();
+  }
+
+  /**
+   * Segment is an LRU list of programs with its own lock and lexer.
+   */
+  private static final class Segment {
+
+    /**
+     * The lock guarding the programs and the lexer.
+     */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The lexer used to compile lines that are not in the segment.
+     */
+    final Lexer lexer = new Lexer();
+
+    /**
+     * The cached programs in order of use, from least to most recently used.
+     */
+    final LinkedHashMap<String, Program> programs;
+
+    /**
+     * Create an empty segment.
+     *
+     * @param capacity The maximum number of programs kept in the segment
+     */
+    Segment(int capacity) {
+      this.programs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+          return this.size() > capacity;
+        }
+      };
+    }
+  }
+}
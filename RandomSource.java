@@ -0,0 +1,39 @@
+/**
+ * RandomSource supplies the 'random' numbers pushed by the r operator of {@link SRPN}.
+ * <p>
+ * A source is a deterministic sequence with a current position. Any value of the sequence can be
+ * read by position without advancing through the values before it, and the position can be saved
+ * and restored, so that replayed or sharded sessions can resume at any point of the sequence.
+ */
+public interface RandomSource {
+
+  /**
+   * Get the value at the current position and advance to the next position.
+   *
+   * @return the next value of the sequence
+   */
+  int next();
+
+  /**
+   * Get the number of values taken from the sequence so far.
+   *
+   * @return the current position in the sequence
+   */
+  long position();
+
+  /**
+   * Move to a position in the sequence, so that the next value returned is the value at that
+   * position.
+   *
+   * @param position The position to move to
+   */
+  void seek(long position);
+
+  /**
+   * Get the value at a position in the sequence without changing the current position.
+   *
+   * @param position The position of the value
+   * @return the value at the given position
+   */
+  int valueAt(long position);
+}
@@ -0,0 +1,307 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * ReplayEngine drives a fresh {@link SRPN} session with a recorded log of input lines, as quickly
+ * as possible, to reproduce the behaviour of a past session.
+ * <p>
+ * The log is read through a memory mapping and each line is interpreted without creating a String.
+ * Output is either discarded, reduced to a hash, or compared line by line with the expected output,
+ * stopping at the first difference. A replay can also stop after a given number of lines, to
+ * inspect the state of the session at that point. A line that throws, as a modulo by 0 does, ends
+ * the replay as it ends a console session, and is recorded in the result along with the output
+ * produced before it.
+ */
+final class ReplayEngine {
+
+  /**
+   * The outcome of a replay.
+   */
+  static final class Result {
+
+    /**
+     * The number of input lines replayed.
+     */
+    long lines = 0;
+
+    /**
+     * The number of lines of output produced.
+     */
+    long outputLines = 0;
+
+    /**
+     * The FNV-1a hash of the output, if it was hashed.
+     */
+    long hash = 0;
+
+    /**
+     * The number of the input line that produced the first difference from the expected output,
+     * starting from 1, or 0 if there was no difference.
+     */
+    long mismatchLine = 0;
+
+    /**
+     * The first line of expected output that differed, or null if the expected output ended first.
+     */
+    String expected = null;
+
+    /**
+     * The line of output that differed from the expected output, or null if the output ended first.
+     */
+    String actual = null;
+
+    /**
+     * The number of the input line that threw, starting from 1, or 0 if none did.
+     */
+    long failureLine = 0;
+
+    /**
+     * The class of the exception thrown by the failed line, or null if none did.
+     */
+    String failure = null;
+
+    /**
+     * The time taken to replay the log, in nanoseconds.
+     */
+    long elapsedNanos = 0;
+
+    @Override
+    public String toString() {
+      double seconds = this.elapsedNanos / 1e9;
+      String summary = String.format("lines=%d output=%d hash=%016x elapsed=%.3fs lines/s=%.0f",
+          this.lines, this.outputLines, this.hash, seconds, this.lines / seconds);
+      if (this.mismatchLine > 0) {
+        summary += String.format("%nmismatch at input line %d, output line %d: expected %s, got %s",
+            this.mismatchLine, this.outputLines, this.expected, this.actual);
+      }
+      if (this.failureLine > 0) {
+        summary += String.format("%nfailed at input line %d: %s", this.failureLine, this.failure);
+      }
+      return summary;
+    }
+  }
+
+  /**
+   * The number of lines after which a replay stops.
+   */
+  private final long stopAtLine;
+
+  /**
+   * Create an engine that replays logs to the end.
+   */
+  ReplayEngine() {
+    this(Long.MAX_VALUE);
+  }
+
+  /**
+   * Create an engine that stops replaying logs after a given number of lines.
+   *
+   * @param stopAtLine The number of the last line replayed, starting from 1
+   */
+  ReplayEngine(long stopAtLine) {
+    if (stopAtLine < 1) {
+      throw new IllegalArgumentException("Must replay at least 1 line");
+    }
+    this.stopAtLine = stopAtLine;
+  }
+
+  /**
+   * Replay a log, discarding the output.
+   *
+   * @param log The input lines to be replayed
+   * @param srpn The session the log is replayed into, whose output is normally discarded
+   * @return the outcome of the replay
+   * @throws IOException if the log could not be read
+   */
+  Result replay(Path log, SRPN srpn) throws IOException {
+    Result result = new Result();
+    long start = System.nanoTime();
+    LineHandler handler = new LineHandler(srpn, null);
+    result.lines = MappedScript.forEachLine(log, handler);
+    handler.report(result);
+    result.elapsedNanos = System.nanoTime() - start;
+    return result;
+  }
+
+  /**
+   * Replay a log in a fresh session, hashing the output.
+   *
+   * @param log The input lines to be replayed
+   * @return the outcome of the replay, including the hash of the output
+   * @throws IOException if the log could not be read
+   */
+  Result hash(Path log) throws IOException {
+    HashingOutputSink out = new HashingOutputSink();
+    Result result = this.replay(log, new SRPN(out));
+    result.hash = out.hash();
+    result.outputLines = out.lines();
+    return result;
+  }
+
+  /**
+   * Replay a log in a fresh session, comparing the output with the expected output and stopping at
+   * the first difference.
+   *
+   * @param log The input lines to be replayed
+   * @param expected The file holding the expected output
+   * @return the outcome of the replay, including the first difference if there was one
+   * @throws IOException if the log or the expected output could not be read
+   */
+  Result diff(Path log, Path expected) throws IOException {
+    Result result = new Result();
+    long start = System.nanoTime();
+    try (BufferedReader reader = Files.newBufferedReader(expected)) {
+      DiffOutputSink out = new DiffOutputSink(reader);
+      LineHandler handler = new LineHandler(new SRPN(out), out);
+      result.lines = MappedScript.forEachLine(log, handler);
+      handler.report(result);
+      if (!out.mismatch && result.lines < this.stopAtLine) {
+        // the whole log was replayed, so any further expected output is missing
+        String extra = reader.readLine();
+        if (extra != null) {
+          out.lines++;
+          out.mismatch = true;
+          out.expected = extra;
+          out.actual = null;
+        }
+      }
+      if (out.mismatch) {
+        result.mismatchLine = Math.max(result.lines, 1);
+        result.expected = out.expected;
+        result.actual = out.actual;
+      }
+      result.outputLines = out.lines;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    result.elapsedNanos = System.nanoTime() - start;
+    return result;
+  }
+
+  /**
+   * LineHandler interprets each line of a log until the last line or the first difference.
+   */
+  private final class LineHandler implements MappedScript.LineHandler {
+
+    /**
+     * The session the log is replayed into.
+     */
+    private final SRPN srpn;
+
+    /**
+     * The sink comparing output with the expected output, or null if output is not compared.
+     */
+    private final DiffOutputSink diff;
+
+    /**
+     * The number of lines replayed so far.
+     */
+    private long lines = 0;
+
+    /**
+     * The exception thrown by the last line replayed, or null if none was.
+     */
+    private RuntimeException failure = null;
+
+    LineHandler(SRPN srpn, DiffOutputSink diff) {
+      this.srpn = srpn;
+      this.diff = diff;
+    }
+
+    @Override
+    public boolean line(CharSequence line) {
+      try {
+        this.srpn.interpret(line);
+      } catch (UncheckedIOException e) {
+        throw e;
+      } catch (RuntimeException e) {
+        this.failure = e;
+        this.lines++;
+        return false;
+      }
+      return ++this.lines < ReplayEngine.this.stopAtLine
+          && (this.diff == null || !this.diff.mismatch);
+    }
+
+    /**
+     * Record the line that threw, if one did, in the outcome of the replay.
+     *
+     * @param result The outcome of the replay
+     */
+    void report(Result result) {
+      if (this.failure != null) {
+        result.failureLine = this.lines;
+        result.failure = this.failure.getClass().getName();
+      }
+    }
+  }
+
+  /**
+   * DiffOutputSink compares each line of output with the next line of the expected output,
+   * remembering the first difference.
+   */
+  private static final class DiffOutputSink implements OutputSink {
+
+    /**
+     * The expected output.
+     */
+    private final BufferedReader expectedOutput;
+
+    /**
+     * The number of lines of output compared so far.
+     */
+    private long lines = 0;
+
+    /**
+     * Whether the output has differed from the expected output.
+     */
+    private boolean mismatch = false;
+
+    /**
+     * The first line of expected output that differed.
+     */
+    private String expected = null;
+
+    /**
+     * The first line of output that differed.
+     */
+    private String actual = null;
+
+    DiffOutputSink(BufferedReader expectedOutput) {
+      this.expectedOutput = expectedOutput;
+    }
+
+    @Override
+    public void println(int value) {
+      if (!this.mismatch) {
+        this.println(Integer.toString(value));
+      }
+    }
+
+    @Override
+    public void println(String line) {
+      if (this.mismatch) {
+        return;
+      }
+      this.lines++;
+      String expected;
+      try {
+        expected = this.expectedOutput.readLine();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (!line.equals(expected)) {
+        this.mismatch = true;
+        this.expected = expected;
+        this.actual = line;
+      }
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+}
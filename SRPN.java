@@ -1,5 +1,3 @@
-import java.util.Stack;
-
 /**
  * SRPN implements a Saturated Reverse Polish Notation Calculator.
  *
@@ -10,16 +8,108 @@ import java.util.Stack;
 
 public class SRPN {
 
+  /**
+   * The maximum number of operands permitted on the stack, matching the functionality of a legacy
+   * program.
+   */
+  static final int MAX_STACK_SIZE = 23;
+
   /**
    * A stack of integers to contain the operands entered by the user.
    */
-  private final Stack<Integer> stack = new Stack<>();
+  private final IntStack stack = new IntStack(MAX_STACK_SIZE);
+
+  /**
+   * The source of the 'random' numbers generated by the r operator, which by default advances
+   * through a pre-determined list of randoms, matching the functionality of a legacy program.
+   */
+  private final RandomSource randoms;
+
+  /**
+   * The cache of compiled programs used to avoid splitting repeated commands into tokens again.
+   */
+  private final ProgramCache programs;
+
+  /**
+   * A lexer used to interpret commands directly, reused between commands to avoid allocation.
+   */
+  private final Lexer lexer = new Lexer();
+
+  /**
+   * The listener that results, errors and displayed stacks are reported to.
+   */
+  private final SrpnListener listener;
+
+  /**
+   * The observer notified of the work done by this calculator, or null if it is not instrumented.
+   */
+  private ExecutionObserver observer = null;
+
+  /**
+   * The journal each command is recorded in before it is processed, or null if it is not
+   * journaled.
+   */
+  private CommandJournal journal = null;
 
   /**
-   * An integer to track the current number of generated randoms. This is used to advance through a
-   * pre-determined list of randoms, matching the functionality of a legacy program.
+   * Create a calculator that writes its output to the console, flushing after every line.
+   */
+  public SRPN() {
+    this(new BufferedOutputSink(System.out, BufferedOutputSink.DEFAULT_BUFFER_SIZE, 1));
+  }
+
+  /**
+   * Create a calculator that writes its output to a given sink.
+   *
+   * @param out The sink that output is written to
+   */
+  public SRPN(OutputSink out) {
+    this(out, new ProgramCache());
+  }
+
+  /**
+   * Create a calculator that writes its output to a given sink and compiles commands through a
+   * given cache, which may be shared with other calculators.
+   *
+   * @param out The sink that output is written to
+   * @param programs The cache of compiled programs
+   */
+  public SRPN(OutputSink out, ProgramCache programs) {
+    this(out, programs, new LegacyRandomSource());
+  }
+
+  /**
+   * Create a calculator with a given sink, program cache and source of randoms.
+   *
+   * @param out The sink that output is written to
+   * @param programs The cache of compiled programs
+   * @param randoms The source of the numbers generated by the r operator
+   */
+  public SRPN(OutputSink out, ProgramCache programs, RandomSource randoms) {
+    this(new ConsoleListener(out), programs, randoms);
+  }
+
+  /**
+   * Create a headless calculator that reports its results to a listener instead of writing output.
+   *
+   * @param listener The listener that results, errors and displayed stacks are reported to
+   */
+  public SRPN(SrpnListener listener) {
+    this(listener, new ProgramCache(), new LegacyRandomSource());
+  }
+
+  /**
+   * Create a headless calculator with a given listener, program cache and source of randoms.
+   *
+   * @param listener The listener that results, errors and displayed stacks are reported to
+   * @param programs The cache of compiled programs
+   * @param randoms The source of the numbers generated by the r operator
    */
-  private int randomIndex = 0;
+  public SRPN(SrpnListener listener, ProgramCache programs, RandomSource randoms) {
+    this.listener = listener;
+    this.programs = programs;
+    this.randoms = randoms;
+  }
 
   /**
    * Process a user entered command that could represent an operator (e.g. 10), an operand (e.g. +)
@@ -28,32 +118,169 @@ public class SRPN {
    * @param command The command string to be processed
    */
   public void processCommand(String command) {
-    // Remove all comments from the command
-    command = command.replaceAll("#.*#", "");
-    // space pad all non-special operands
-    command = command.replaceAll("([+/*^%])(?!=)", " $1 ");
-    // space pad all special operands
-    command = command.replaceAll("(\\+=|-=|/=|\\*=|\\^=|%=)", " $1 ");
-    // pad all alphabetical characters provided
-    command = command.replaceAll("([a-zA-Z])", " $1 ");
-    // Replace instances of multiple spaces with a single space
-    command = command.replaceAll("\\s+", " ");
-    // Clear all leading and trailing whitespace
-    command = command.trim();
-    if (command.length() > 0) {
-      for (String item : command.split(" ")) {
-        // separate operands from operators / commands by attempting to parse commands as integers
-        try {
-          int operand = Integer.parseInt(item);
-          if (this.isSpaceOnStack()) {
-            this.stack.push(operand);
-          }
-        } catch (NumberFormatException e) {
-          // Exception is not logged to match legacy program functionality
-          processSingleCommand(item);
+    if (this.journal != null) {
+      this.journal.record(command);
+    }
+    if (this.observer == null) {
+      this.execute(this.programs.get(command));
+    } else {
+      long start = System.nanoTime();
+      this.execute(this.programs.get(command));
+      this.observer.onLine(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Interpret a command directly from its characters, without compiling or caching it.
+   * <p>
+   * This has the same effect as {@link #processCommand(String)}, but does not need the command as
+   * a String, so it suits commands read straight from a buffer that are unlikely to repeat.
+   *
+   * @param command The command to be interpreted
+   */
+  void interpret(CharSequence command) {
+    long start = this.observer != null ? System.nanoTime() : 0;
+    this.lexer.reset(command);
+    while (this.lexer.next()) {
+      if (this.lexer.isNumber()) {
+        if (this.isSpaceOnStack()) {
+          this.stack.push(this.lexer.intValue());
         }
+      } else if (this.lexer.code() != Opcode.UNRECOGNISED) {
+        this.execute(this.lexer.code());
+      } else {
+        this.unrecognised(this.lexer);
+      }
+      if (this.observer != null) {
+        this.observer.onDepth(this.stack.size());
+      }
+    }
+    if (this.observer != null) {
+      this.observer.onLine(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Execute a compiled program, with the same effect as processing the command it was compiled
+   * from.
+   *
+   * @param program The program to be executed
+   */
+  void execute(Program program) {
+    int start = 0;
+    if (this.observer == null) {
+      // lines executed many times run as bytecode, as far as the stack allows
+      CompiledProgram compiled = program.compiled();
+      if (compiled != null) {
+        start = compiled.run(this.stack, this.listener, this.randoms);
       }
     }
+    for (int i = start; i < program.size(); i++) {
+      this.execute(program.get(i));
+    }
+  }
+
+  /**
+   * Execute a single instruction of a compiled program.
+   * <p>
+   * A folded instruction pushes its result directly when the stack has room for every value its
+   * original sequence would have pushed. Otherwise, or when the calculator is instrumented, the
+   * original sequence is executed so that overflow errors and observer events are unchanged.
+   *
+   * @param instruction The instruction to be executed
+   */
+  private void execute(Instruction instruction) {
+    switch (instruction.kind) {
+      case PUSH:
+        if (this.isSpaceOnStack()) {
+          this.stack.push(instruction.operand);
+        }
+        break;
+
+      case OPERATOR:
+        this.execute(instruction.code);
+        break;
+
+      case UNRECOGNISED:
+        this.unrecognised(instruction.text);
+        break;
+
+      case FOLDED:
+        if (this.observer == null
+            && this.stack.size() + instruction.headroom <= MAX_STACK_SIZE) {
+          this.stack.push(instruction.operand);
+        } else {
+          for (Instruction original : instruction.folded) {
+            this.execute(original);
+          }
+        }
+        return;
+    }
+    if (this.observer != null) {
+      this.observer.onDepth(this.stack.size());
+    }
+  }
+
+  /**
+   * Return the calculator to its initial state, with an empty stack and the list of randoms
+   * restarted.
+   */
+  void reset() {
+    this.stack.clear();
+    this.randoms.seek(0);
+  }
+
+  /**
+   * Instrument this calculator by setting an observer to be notified of the work it does.
+   * <p>
+   * An observer is told of every operand and operator, which the compiled tier and folded
+   * constants skip over, so while one is set every line is interpreted instruction by instruction.
+   * A line that would run as bytecode is then 4 to 15 times slower in ObserverBenchmark of the JMH
+   * project, the longer the line the greater the difference, whatever the observer does.
+   *
+   * @param observer The observer to be notified, or null to stop instrumenting the calculator
+   */
+  public void setObserver(ExecutionObserver observer) {
+    this.observer = observer;
+  }
+
+  /**
+   * Record every command passed to {@link #processCommand(String)} in a journal before it is
+   * processed.
+   *
+   * @param journal The journal commands are recorded in, or null to stop journaling
+   * @see CommandJournal#CommandJournal(java.nio.file.Path, SRPN, int, long)
+   */
+  void setJournal(CommandJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Get the stack of operands of this calculator.
+   *
+   * @return the operand stack, which is modified by every command processed
+   */
+  IntStack stack() {
+    return this.stack;
+  }
+
+  /**
+   * Get the source of the numbers generated by the r operator, whose position can be saved and
+   * restored.
+   *
+   * @return the source of randoms used by this calculator
+   */
+  RandomSource randomSource() {
+    return this.randoms;
+  }
+
+  /**
+   * Get the cache of compiled programs used by this calculator.
+   *
+   * @return the program cache, which exposes hit and miss counters
+   */
+  public ProgramCache programCache() {
+    return this.programs;
   }
 
   /**
@@ -83,122 +310,113 @@ public class SRPN {
    * @param command A single command to be processed.
    */
   public void processSingleCommand(String command) {
-    switch (command) {
-      case "=":
+    int code = Opcode.resolve(command);
+    if (code != Opcode.UNRECOGNISED) {
+      this.execute(code);
+    } else {
+      this.unrecognised(command);
+    }
+  }
+
+  /**
+   * Execute a single operator that has been resolved into a code.
+   * <p>
+   * Compound operators share the handling of their base operator, and display the value at the top
+   * of the stack before it is applied.
+   *
+   * @param code The resolved code of the operator to be executed
+   * @see Opcode#resolve(CharSequence)
+   */
+  void execute(int code) {
+    boolean print = (code & Opcode.PRINT) != 0;
+    Opcode opcode = Opcode.VALUES[code >> 1];
+    if (this.observer != null) {
+      this.observer.onOperator(opcode);
+    }
+    switch (opcode) {
+      case EQUALS:
         if (this.stack.size() > 0) {
           // show the element at the top of the stack without removing or modifying it
-          System.out.println(this.stack.peek());
+          this.listener.onResult(this.stack.peek());
         } else {
-          System.out.println("Stack empty.");
-        }
-        break;
-
-      case "+":
-        if (this.enoughOperandsOnStack()) {
-          this.add(this.stack.pop(), this.stack.pop());
-        }
-        break;
-
-      case "+=":
-        if (this.enoughOperandsOnStack()) {
-          int operand1 = this.stack.pop();
-          System.out.println(operand1);
-          this.add(operand1, this.stack.pop());
-        }
-        break;
-
-      case "-":
-        if (this.enoughOperandsOnStack()) {
-          this.subtract(this.stack.pop(), this.stack.pop());
-        }
-        break;
-
-      case "-=":
-        if (this.enoughOperandsOnStack()) {
-          int operand1 = this.stack.pop();
-          System.out.println(operand1);
-          this.subtract(operand1, this.stack.pop());
-        }
-        break;
-
-      case "*":
-        if (this.enoughOperandsOnStack()) {
-          this.multiply(this.stack.pop(), this.stack.pop());
-        }
-        break;
-
-      case "*=":
-        if (this.enoughOperandsOnStack()) {
-          int operand1 = this.stack.pop();
-          System.out.println(operand1);
-          this.multiply(operand1, this.stack.pop());
+          this.error(ErrorCode.STACK_EMPTY);
         }
         break;
 
-      case "/":
-        if (this.enoughOperandsOnStack()) {
-          this.divide(this.stack.pop(), this.stack.pop());
+      case ADD:
+        if (this.binaryOperandsOnStack(print)) {
+          this.add(this.stack.peek(), this.stack.peek(1));
         }
         break;
 
-      case "/=":
-        if (this.enoughOperandsOnStack()) {
-          int operand1 = this.stack.pop();
-          System.out.println(operand1);
-          this.divide(operand1, this.stack.pop());
+      case SUBTRACT:
+        if (this.binaryOperandsOnStack(print)) {
+          this.subtract(this.stack.peek(), this.stack.peek(1));
         }
         break;
 
-      case "%":
-        if (this.enoughOperandsOnStack()) {
-          this.mod(this.stack.pop(), this.stack.pop());
+      case MULTIPLY:
+        if (this.binaryOperandsOnStack(print)) {
+          this.multiply(this.stack.peek(), this.stack.peek(1));
         }
         break;
 
-      case "%=":
-        if (this.enoughOperandsOnStack()) {
-          int operand1 = this.stack.pop();
-          System.out.println(operand1);
-          this.mod(operand1, this.stack.pop());
+      case DIVIDE:
+        if (this.binaryOperandsOnStack(print)) {
+          this.divide(this.stack.peek(), this.stack.peek(1));
         }
         break;
 
-      case "^":
-        if (this.enoughOperandsOnStack()) {
-          this.power(this.stack.pop(), this.stack.pop());
+      case MOD:
+        if (this.binaryOperandsOnStack(print)) {
+          this.mod(this.stack.peek(), this.stack.peek(1));
         }
         break;
 
-      case "^=":
-        if (this.enoughOperandsOnStack()) {
-          int operand1 = this.stack.pop();
-          System.out.println(operand1);
-          this.power(operand1, this.stack.pop());
+      case POWER:
+        if (this.binaryOperandsOnStack(print)) {
+          this.power(this.stack.peek(), this.stack.peek(1));
         }
         break;
 
-      case "d":
-        if (this.stack.size() > 0) {
-          this.display();
-        } else {
-          System.out.println(Integer.MIN_VALUE);
-        }
+      case DISPLAY:
+        this.listener.onDisplay(this.stack.array(), this.stack.size());
         break;
 
-      case "r":
+      case RANDOM:
         if (this.isSpaceOnStack()) {
-          this.stack.push(this.generateRandom());
-          this.randomIndex++;  // gradually move through the pre-defined list of randoms
+          this.stack.push(this.randoms.next());
         }
         break;
+    }
+  }
+
+  /**
+   * Report a command that is neither an operand nor a recognised operator.
+   *
+   * @param command The command that was not recognised
+   */
+  private void unrecognised(CharSequence command) {
+    this.listener.onUnrecognised(command);
+    if (this.observer != null) {
+      this.observer.onError(ErrorCode.UNRECOGNISED);
+    }
+  }
 
-      default:
-        System.out.printf("Unrecognised operator or operand \"%s\".\n", command);
+  /**
+   * Report an error to the listener.
+   *
+   * @param error The error to be reported
+   */
+  private void error(ErrorCode error) {
+    this.listener.onError(error);
+    if (this.observer != null) {
+      this.observer.onError(error);
     }
   }
 
   /**
-   * Perform addition with 2 operands and add the result to the stack.
+   * Perform addition with the top 2 operands and replace them on the stack with the result.
    * <p>
    * The result of the addition is checked for saturation against Integer limits before being added
    * to the stack.
@@ -208,11 +426,11 @@ public class SRPN {
    */
   private void add(int operand1, int operand2) {
     long result = (long) operand2 + (long) operand1;
-    this.stack.push(this.saturate(result));
+    this.stack.popTwoPushOne(this.saturate(Opcode.ADD, result));
   }
 
   /**
-   * Perform subtraction with 2 operands and add the result to the stack.
+   * Perform subtraction with the top 2 operands and replace them on the stack with the result.
    * <p>
    * The result of the subtraction is checked for saturation against Integer limits before being
    * added to the stack.
@@ -222,11 +440,11 @@ public class SRPN {
    */
   private void subtract(int operand1, int operand2) {
     long result = (long) operand2 - (long) operand1;
-    this.stack.push(this.saturate(result));
+    this.stack.popTwoPushOne(this.saturate(Opcode.SUBTRACT, result));
   }
 
   /**
-   * Perform multiplication with 2 operands and add the result to the stack.
+   * Perform multiplication with the top 2 operands and replace them on the stack with the result.
    * <p>
    * The result of the multiplication is checked for saturation against Integer limits before being
    * added to the stack.
@@ -236,18 +454,19 @@ public class SRPN {
    */
   private void multiply(int operand1, int operand2) {
     long result = (long) operand2 * (long) operand1;
-    this.stack.push(this.saturate(result));
+    this.stack.popTwoPushOne(this.saturate(Opcode.MULTIPLY, result));
   }
 
   /**
-   * Perform division with 2 operands and add the result to the stack.
+   * Perform division with the top 2 operands and replace them on the stack with the result.
    * <p>
-   * As the two operands used for this operation are generated through stack.pop(), they are passed
-   * to this function in the reverse order that they were entered by the user. The operands are
-   * swapped to ensure that the operation carried out reflects the operation entered by the user.
+   * As the two operands used for this operation are taken from the top of the stack, they are
+   * passed to this function in the reverse order that they were entered by the user. The operands
+   * are swapped to ensure that the operation carried out reflects the operation entered by the
+   * user.
    * <p>
-   * If a division by 0 is attempted, the popped operands need to be added back to the stack in the
-   * same order they were entered by the user.
+   * If a division by 0 is attempted, the operands are left on the stack in the same order they were
+   * entered by the user.
    * <p>
    * The result of the division is checked for saturation against Integer limits before being added
    * to the stack.
@@ -259,17 +478,15 @@ public class SRPN {
     if (operand1 != 0) {
       // operands are swapped to match order of user entry
       long result = (long) operand2 / (long) operand1;
-      this.stack.push(this.saturate(result));
+      this.stack.popTwoPushOne(this.saturate(Opcode.DIVIDE, result));
     } else {
-      System.out.println("Divide by 0.");
-      // put the values back on the stack
-      this.stack.push(operand2);
-      this.stack.push(operand1);
+      // the operands are left on the stack in the order they were entered by the user
+      this.error(ErrorCode.DIVIDE_BY_ZERO);
     }
   }
 
   /**
-   * Perform modulo division with 2 operands and add the result to the stack.
+   * Perform modulo division with the top 2 operands and replace them on the stack with the result.
    * <p>
    * The result of the modulo division is checked for saturation against Integer limits before being
    * added to the stack.
@@ -278,65 +495,21 @@ public class SRPN {
    * @param operand2 The second operand to be used for module division
    */
   private void mod(int operand1, int operand2) {
-    this.stack.push(operand2 % operand1);
+    this.stack.popTwoPushOne(operand2 % operand1);
   }
 
   /**
-   * Raise a base to an exponent and add the result to the stack.
+   * Raise a base to an exponent and replace them on the stack with the result.
    * <p>
-   * The result of the modulo division is checked for saturation against Integer limits before being
-   * added to the stack.
+   * The power is calculated with integer arithmetic by repeated squaring, and is checked for
+   * saturation against Integer limits before being added to the stack.
    *
    * @param operand1 The exponent the base will be raised to
    * @param operand2 The base value that will be raised to an exponent
+   * @see IntMath#power(int, int)
    */
   private void power(int operand1, int operand2) {
-    this.stack.push(this.saturate((long) Math.pow(operand2, operand1)));
-  }
-
-  /**
-   * Iterate through the stack and display each value on a new line.
-   */
-  private void display() {
-    for (Object item : this.stack) {
-      System.out.println(item.toString());
-    }
-  }
-
-  /**
-   * Generate a 'random' number from a pre-determined list of random numbers.
-   * <p>
-   * A pre-determined list of randoms is used to match the functionality of a legacy program.
-   *
-   * @return the next integer from a list of integers representing random numbers
-   */
-  private int generateRandom() {
-    int[] randoms = {1804289383,
-        846930886,
-        1681692777,
-        1714636915,
-        1957747793,
-        424238335,
-        719885386,
-        1649760492,
-        596516649,
-        1189641421,
-        1025202362,
-        1350490027,
-        783368690,
-        1102520059,
-        2044897763,
-        1967513926,
-        1365180540,
-        1540383426,
-        304089172,
-        1303455736,
-        35005211,
-        521595368};
-    if (this.randomIndex == randoms.length) {
-      this.randomIndex = 0;
-    }
-    return randoms[this.randomIndex];
+    this.stack.popTwoPushOne(this.saturate(Opcode.POWER, IntMath.power(operand2, operand1)));
   }
 
   /**
@@ -351,7 +524,7 @@ public class SRPN {
    * @param value The value to be checked against the limits of an Integer
    * @return An allowable representation of the provided value as an Integer
    */
-  private int saturate(long value) {
+  static int saturate(long value) {
     if (value > Integer.MAX_VALUE) {
       return Integer.MAX_VALUE;
     } else if (value < Integer.MIN_VALUE) {
@@ -361,6 +534,22 @@ public class SRPN {
     }
   }
 
+  /**
+   * Saturate the result of an operator, notifying the observer if the result was clamped.
+   *
+   * @param opcode The operator that produced the result
+   * @param value The result to be checked against the limits of an Integer
+   * @return An allowable representation of the provided value as an Integer
+   * @see SRPN#saturate(long)
+   */
+  private int saturate(Opcode opcode, long value) {
+    int result = saturate(value);
+    if (this.observer != null && result != value) {
+      this.observer.onSaturation(opcode, value > 0);
+    }
+    return result;
+  }
+
   /**
    * Check that the stack contains at least a specified number of elements.
    *
@@ -370,7 +559,7 @@ public class SRPN {
     if (this.stack.size() >= requiredOperands) {
       return true;
     } else {
-      System.out.println("Stack underflow.");
+      this.error(ErrorCode.STACK_UNDERFLOW);
       return false;
     }
   }
@@ -384,6 +573,23 @@ public class SRPN {
     return enoughOperandsOnStack(2);
   }
 
+  /**
+   * Check that the stack contains the 2 operands of a binary operator, displaying the operand at
+   * the top of the stack first if the operator is a compound operator (e.g. +=).
+   *
+   * @param print true if the operand at the top of the stack should be displayed
+   * @return true if the stack contains enough elements, false otherwise
+   */
+  private boolean binaryOperandsOnStack(boolean print) {
+    if (!this.enoughOperandsOnStack()) {
+      return false;
+    }
+    if (print) {
+      this.listener.onResult(this.stack.peek());
+    }
+    return true;
+  }
+
   /**
    * Ensure the size of the stack does not exceed the maximum permitted size (23).
    * <p>
@@ -394,8 +600,8 @@ public class SRPN {
    */
   private boolean isSpaceOnStack() {
     // limit the stack size to 23 to match legacy functionality
-    if (stack.size() == 23) {
-      System.out.println("Stack overflow.");
+    if (this.stack.isFull()) {
+      this.error(ErrorCode.STACK_OVERFLOW);
       return false;
     } else {
       return true;
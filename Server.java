@@ -0,0 +1,345 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server accepts TCP connections and gives each connection its own calculator session.
+ * <p>
+ * The protocol is line-oriented: every line received is processed as a command, and the output it
+ * produces is sent back followed by an empty line, which marks the end of the response (no output
+ * line is ever empty). Each connection has its own {@link SRPN}, so the stack and the position in
+ * the list of randoms are isolated between sessions, while compiled programs are shared.
+ * <p>
+ * A session is ended deliberately, and its connection closed, when a line is longer than
+ * {@link #MAX_LINE_LENGTH} characters or a command throws, as a modulo division by 0 does. The
+ * response is then the reason, instead of the output of the line, followed by the empty line.
+ * <p>
+ * Sessions run on virtual threads when the runtime supports them (Java 21 or later), so that
+ * thousands of mostly idle sessions fit in one JVM, and on a pool of platform threads otherwise.
+ */
+public final class Server implements AutoCloseable {
+
+  /**
+   * The longest line accepted from a client, in characters.
+   */
+  public static final int MAX_LINE_LENGTH = 1 << 16;
+
+  /**
+   * The response sent before closing a connection that sent a line that is too long.
+   */
+  static final String LINE_TOO_LONG = "Line too long.";
+
+  /**
+   * The socket that connections are accepted on.
+   */
+  private final ServerSocket serverSocket;
+
+  /**
+   * The executor that runs one task per connection.
+   */
+  private final ExecutorService sessions;
+
+  /**
+   * The cache of compiled programs shared by every session.
+   */
+  private final ProgramCache programs = new ProgramCache(4096);
+
+  /**
+   * The time the server was started, used to calculate throughput.
+   */
+  private final long startTime = System.nanoTime();
+
+  /**
+   * The number of connections accepted since the server was started.
+   */
+  private final LongAdder totalConnections = new LongAdder();
+
+  /**
+   * The number of connections currently open.
+   */
+  private final LongAdder activeConnections = new LongAdder();
+
+  /**
+   * The number of lines processed across all sessions.
+   */
+  private final LongAdder linesProcessed = new LongAdder();
+
+  /**
+   * The number of sessions ended by the server because of a line that was too long or a command
+   * that threw.
+   */
+  private final LongAdder abortedSessions = new LongAdder();
+
+  /**
+   * Start a server listening on a port of the loopback interface, which only accepts connections
+   * from the same machine. Give an address to {@link #Server(InetSocketAddress)}, such as the
+   * wildcard address, to accept connections from other machines.
+   *
+   * @param port The port to listen on, or 0 to choose a free port
+   * @throws IOException if the port could not be bound
+   */
+  public Server(int port) throws IOException {
+    this(new InetSocketAddress("localhost", port));
+  }
+
+  /**
+   * Start a server listening on an address.
+   *
+   * @param address The address to listen on
+   * @throws IOException if the address could not be bound
+   */
+  public Server(InetSocketAddress address) throws IOException {
+    this.serverSocket = new ServerSocket();
+    this.serverSocket.bind(address, 1024);
+    this.sessions = newSessionExecutor();
+    Thread acceptor = new Thread(this::acceptConnections, "srpn-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Get the address the server is listening on.
+   *
+   * @return the local address and port of the server
+   */
+  public InetSocketAddress address() {
+    return (InetSocketAddress) this.serverSocket.getLocalSocketAddress();
+  }
+
+  /**
+   * Get the port the server is listening on.
+   *
+   * @return the local port of the server
+   */
+  public int port() {
+    return this.serverSocket.getLocalPort();
+  }
+
+  /**
+   * Get the number of connections accepted since the server was started.
+   *
+   * @return the total number of connections
+   */
+  public long totalConnections() {
+    return this.totalConnections.sum();
+  }
+
+  /**
+   * Get the number of connections currently open.
+   *
+   * @return the number of active connections
+   */
+  public long activeConnections() {
+    return this.activeConnections.sum();
+  }
+
+  /**
+   * Get the number of lines processed across all sessions.
+   *
+   * @return the number of lines processed
+   */
+  public long linesProcessed() {
+    return this.linesProcessed.sum();
+  }
+
+  /**
+   * Get the number of sessions ended by the server because of a line that was too long or a
+   * command that threw.
+   *
+   * @return the number of aborted sessions
+   */
+  public long abortedSessions() {
+    return this.abortedSessions.sum();
+  }
+
+  /**
+   * Get a one-line summary of the connection and throughput metrics of the server.
+   *
+   * @return the metrics of the server as text
+   */
+  public String metrics() {
+    double seconds = (System.nanoTime() - this.startTime) / 1e9;
+    long lines = this.linesProcessed();
+    return String.format("connections=%d active=%d aborted=%d lines=%d lines/s=%.0f",
+        this.totalConnections(), this.activeConnections(), this.abortedSessions(), lines,
+        lines / seconds);
+  }
+
+  /**
+   * Stop accepting connections and close all sessions.
+   *
+   * @throws IOException if the server socket could not be closed
+   */
+  @Override
+  public void close() throws IOException {
+    this.serverSocket.close();
+    this.sessions.shutdownNow();
+    try {
+      this.sessions.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Accept connections until the server is closed, starting a session for each.
+   */
+  private void acceptConnections() {
+    while (!this.serverSocket.isClosed()) {
+      try {
+        Socket socket = this.serverSocket.accept();
+        this.totalConnections.increment();
+        this.sessions.execute(() -> this.runSession(socket));
+      } catch (IOException e) {
+        if (!this.serverSocket.isClosed()) {
+          System.err.println(e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Process the lines sent on a connection until it is closed.
+   *
+   * @param socket The connection to be served
+   */
+  private void runSession(Socket socket) {
+    this.activeConnections.increment();
+    try (socket) {
+      socket.setTcpNoDelay(true);
+      LineReader reader = new LineReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      BufferedOutputSink out = new BufferedOutputSink(socket.getOutputStream(), 8192, 0);
+      SRPN srpn = new SRPN(out, this.programs);
+      String command;
+      while ((command = reader.readLine()) != null) {
+        if (command == LineReader.TOO_LONG) {
+          this.abort(out, LINE_TOO_LONG);
+          return;
+        }
+        try {
+          srpn.processCommand(command);
+        } catch (RuntimeException e) {
+          // the output produced before the failure is sent first, as the console does
+          this.abort(out, e.toString());
+          return;
+        }
+        // an empty line marks the end of the response
+        out.println("");
+        out.flush();
+        this.linesProcessed.increment();
+      }
+    } catch (SocketException | UncheckedIOException e) {
+      // Connection reset by the client or closed by the server
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+    } finally {
+      this.activeConnections.decrement();
+    }
+  }
+
+  /**
+   * End a session by sending the reason as its last response; the connection is then closed.
+   *
+   * @param out The output of the session
+   * @param reason The line explaining why the session ended
+   */
+  private void abort(BufferedOutputSink out, String reason) {
+    this.abortedSessions.increment();
+    out.println(reason);
+    out.println("");
+    out.flush();
+  }
+
+  /**
+   * Create an executor that runs each session on a virtual thread if the runtime supports them, or
+   * on a pool of daemon platform threads otherwise.
+   *
+   * @return an executor for sessions
+   */
+  private static ExecutorService newSessionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "srpn-session");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * LineReader reads lines like {@link BufferedReader#readLine()}, but without holding more than
+   * {@link #MAX_LINE_LENGTH} characters of one, so a client cannot exhaust the heap with a line
+   * that never ends.
+   */
+  private static final class LineReader {
+
+    /**
+     * The value returned in place of a line that is too long.
+     */
+    static final String TOO_LONG = new String("");
+
+    /**
+     * The characters of the connection, buffered.
+     */
+    private final BufferedReader reader;
+
+    /**
+     * The line being read.
+     */
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * Whether the last line ended with a carriage return, so that a line feed following it is part
+     * of the same line terminator.
+     */
+    private boolean skipLineFeed = false;
+
+    LineReader(Reader reader) {
+      this.reader = new BufferedReader(reader);
+    }
+
+    /**
+     * Read the next line, without its terminator.
+     *
+     * @return the line, {@link #TOO_LONG} if it is longer than the limit, or null at the end of
+     *     the stream
+     * @throws IOException if the connection could not be read
+     */
+    String readLine() throws IOException {
+      this.line.setLength(0);
+      int character;
+      while ((character = this.reader.read()) != -1) {
+        boolean skip = this.skipLineFeed;
+        this.skipLineFeed = false;
+        if (character == '\n') {
+          if (!skip) {
+            return this.line.toString();
+          }
+        } else if (character == '\r') {
+          this.skipLineFeed = true;
+          return this.line.toString();
+        } else if (this.line.length() == MAX_LINE_LENGTH) {
+          return TOO_LONG;
+        } else {
+          this.line.append((char) character);
+        }
+      }
+      return this.line.length() > 0 ? this.line.toString() : null;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+import java.nio.ByteBuffer;
+
+/**
+ * SlotWorker evaluates commands for sessions whose state is held in {@link Snapshot} slots of a
+ * buffer rather than in a calculator of their own.
+ * <p>
+ * A worker owns a single {@link SRPN}. To evaluate a command it loads the slot of the session into
+ * the calculator, processes the command, and stores the state back into the slot, so that a
+ * session costs only the bytes of its slot while it is idle. Events are forwarded to a listener
+ * given with each command. A worker is not thread-safe, and is meant to be kept per thread.
+ * <p>
+ * A listener may call back into a store on the same thread. The worker of the outer command then
+ * holds a session that has not been stored yet, so {@link #acquire(ByteBuffer, int)} passes such a
+ * call to a nested worker, created once and reused, and rejects a call for the session being
+ * evaluated, whose slot would be overwritten when the outer command finished.
+ * <p>
+ * The slot is copied rather than operated on in place because the interpreter and the compiled
+ * lines of {@link LineCompiler} work on the int array of an {@link IntStack}. Loading reads the
+ * header and the operands in use, and storing writes the whole slot, which is a fixed cost of a
+ * few dozen nanoseconds per command that does not allocate.
+ */
+final class SlotWorker implements SrpnListener {
+
+  /**
+   * The calculator sessions are loaded into.
+   */
+  private final SRPN srpn;
+
+  /**
+   * The cache of compiled programs, for the nested worker.
+   */
+  private final ProgramCache programs;
+
+  /**
+   * The listener of the command being processed.
+   */
+  private SrpnListener listener = null;
+
+  /**
+   * The buffer holding the slot being evaluated, or null if the worker is idle.
+   */
+  private ByteBuffer buffer = null;
+
+  /**
+   * The index of the first byte of the slot being evaluated.
+   */
+  private int offset;
+
+  /**
+   * The worker for commands evaluated by a listener of this one, or null until one is needed.
+   */
+  private SlotWorker nested = null;
+
+  /**
+   * Create a worker compiling commands through a shared cache.
+   *
+   * @param programs The cache of compiled programs
+   */
+  SlotWorker(ProgramCache programs) {
+    this.programs = programs;
+    this.srpn = new SRPN(this, programs, new LegacyRandomSource());
+  }
+
+  /**
+   * Get an idle worker for a slot: this worker, or if it is evaluating a command whose listener
+   * called back into the store, a nested worker.
+   *
+   * @param buffer The buffer holding the slot
+   * @param offset The index of the first byte of the slot
+   * @return an idle worker
+   * @throws IllegalStateException if the slot is being evaluated by this worker or a nested one
+   */
+  SlotWorker acquire(ByteBuffer buffer, int offset) {
+    SlotWorker worker = this;
+    while (worker.buffer != null) {
+      if (worker.buffer == buffer && worker.offset == offset) {
+        throw new IllegalStateException("Session is already evaluating a command on this thread");
+      }
+      if (worker.nested == null) {
+        worker.nested = new SlotWorker(worker.programs);
+      }
+      worker = worker.nested;
+    }
+    return worker;
+  }
+
+  /**
+   * Write the state of a new session to a slot.
+   *
+   * @param buffer The buffer holding the slot
+   * @param offset The index of the first byte of the slot
+   */
+  void initialise(ByteBuffer buffer, int offset) {
+    this.srpn.reset();
+    Snapshot.save(this.srpn, buffer, offset);
+  }
+
+  /**
+   * Process a command for the session held in a slot, storing its new state back into the slot.
+   * The state is stored even if the command fails, as a calculator of its own would keep it.
+   *
+   * @param buffer The buffer holding the slot
+   * @param offset The index of the first byte of the slot
+   * @param command The command to be processed
+   * @param listener The listener that results, errors and displayed stacks are reported to
+   * @throws IllegalArgumentException if the slot does not hold a valid snapshot
+   */
+  void evaluate(ByteBuffer buffer, int offset, String command, SrpnListener listener) {
+    Snapshot.restore(this.srpn, buffer, offset);
+    this.listener = listener;
+    this.buffer = buffer;
+    this.offset = offset;
+    try {
+      this.srpn.processCommand(command);
+    } finally {
+      this.listener = null;
+      this.buffer = null;
+      Snapshot.save(this.srpn, buffer, offset);
+    }
+  }
+
+  @Override
+  public void onResult(int value) {
+    this.listener.onResult(value);
+  }
+
+  @Override
+  public void onDisplay(int[] stack, int depth) {
+    this.listener.onDisplay(stack, depth);
+  }
+
+  @Override
+  public void onError(ErrorCode error) {
+    this.listener.onError(error);
+  }
+
+  @Override
+  public void onUnrecognised(CharSequence token) {
+    this.listener.onUnrecognised(token);
+  }
+}
@@ -0,0 +1,172 @@
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Snapshot saves and restores the entire state of an {@link SRPN} session as a fixed-size binary
+ * record, so that a session can be checkpointed, or moved to another process, without replaying
+ * the commands that produced it.
+ * <p>
+ * Every snapshot is {@link #SIZE} bytes long, in the byte order of the buffer it is written to:
+ * <pre>
+ *   offset  size  field
+ *        0     4  magic number 0x5352504E ("SRPN")
+ *        4     1  format version
+ *        5     1  depth of the stack
+ *        6     2  reserved, 0
+ *        8     8  position of the randoms
+ *       16    92  the 23 elements of the stack from the bottom, unused elements 0
+ * </pre>
+ * The output sink, program cache and observer of a session are not part of its state.
+ */
+public final class Snapshot {
+
+  /**
+   * The number of bytes in a snapshot.
+   */
+  public static final int SIZE = 16 + SRPN.MAX_STACK_SIZE * Integer.BYTES;
+
+  /**
+   * The number identifying the start of a snapshot.
+   */
+  private static final int MAGIC = 0x5352504E;
+
+  /**
+   * The version of the snapshot format.
+   */
+  private static final byte VERSION = 1;
+
+  /**
+   * The offset of the depth of the stack within a snapshot.
+   */
+  private static final int DEPTH = 5;
+
+  /**
+   * The offset of the position of the randoms within a snapshot.
+   */
+  private static final int RANDOM_POSITION = 8;
+
+  /**
+   * The offset of the elements of the stack within a snapshot.
+   */
+  private static final int ELEMENTS = 16;
+
+  private Snapshot() {
+  }
+
+  /**
+   * Write a snapshot of a session at the position of a buffer, advancing the position past it.
+   *
+   * @param srpn The session to be saved
+   * @param buffer The buffer the snapshot is written to
+   * @throws BufferOverflowException if fewer than {@link #SIZE} bytes remain in the buffer
+   */
+  public static void save(SRPN srpn, ByteBuffer buffer) {
+    if (buffer.remaining() < SIZE) {
+      throw new BufferOverflowException();
+    }
+    save(srpn, buffer, buffer.position());
+    buffer.position(buffer.position() + SIZE);
+  }
+
+  /**
+   * Write a snapshot of a session at an offset of a buffer, without changing its position.
+   *
+   * @param srpn The session to be saved
+   * @param buffer The buffer the snapshot is written to
+   * @param offset The index of the first byte of the snapshot
+   */
+  public static void save(SRPN srpn, ByteBuffer buffer, int offset) {
+    IntStack stack = srpn.stack();
+    buffer.putInt(offset, MAGIC);
+    buffer.put(offset + 4, VERSION);
+    buffer.put(offset + DEPTH, (byte) stack.size());
+    buffer.putShort(offset + 6, (short) 0);
+    buffer.putLong(offset + RANDOM_POSITION, srpn.randomSource().position());
+    for (int i = 0; i < SRPN.MAX_STACK_SIZE; i++) {
+      buffer.putInt(offset + ELEMENTS + i * Integer.BYTES, i < stack.size() ? stack.get(i) : 0);
+    }
+  }
+
+  /**
+   * Replace the state of a session with a snapshot read from the position of a buffer, advancing
+   * the position past it.
+   *
+   * @param srpn The session to be restored
+   * @param buffer The buffer the snapshot is read from
+   * @throws BufferUnderflowException if fewer than {@link #SIZE} bytes remain in the buffer
+   * @throws IllegalArgumentException if the buffer does not hold a valid snapshot
+   */
+  public static void restore(SRPN srpn, ByteBuffer buffer) {
+    if (buffer.remaining() < SIZE) {
+      throw new BufferUnderflowException();
+    }
+    restore(srpn, buffer, buffer.position());
+    buffer.position(buffer.position() + SIZE);
+  }
+
+  /**
+   * Replace the state of a session with a snapshot read from an offset of a buffer, without
+   * changing its position.
+   *
+   * @param srpn The session to be restored
+   * @param buffer The buffer the snapshot is read from
+   * @param offset The index of the first byte of the snapshot
+   * @throws IllegalArgumentException if the buffer does not hold a valid snapshot
+   */
+  public static void restore(SRPN srpn, ByteBuffer buffer, int offset) {
+    int depth = validate(buffer, offset);
+    IntStack stack = srpn.stack();
+    stack.clear();
+    for (int i = 0; i < depth; i++) {
+      stack.push(buffer.getInt(offset + ELEMENTS + i * Integer.BYTES));
+    }
+    srpn.randomSource().seek(buffer.getLong(offset + RANDOM_POSITION));
+  }
+
+  /**
+   * Check whether a buffer starts a snapshot at an offset, without validating the rest of it.
+   *
+   * @param buffer The buffer that may hold a snapshot
+   * @param offset The index of the first byte of the snapshot
+   * @return true if the bytes at the offset are the magic number of a snapshot
+   */
+  static boolean present(ByteBuffer buffer, int offset) {
+    return buffer.getInt(offset) == MAGIC;
+  }
+
+  /**
+   * Erase the magic number of a snapshot, so that it is no longer {@link #present}.
+   *
+   * @param buffer The buffer holding the snapshot
+   * @param offset The index of the first byte of the snapshot
+   */
+  static void erase(ByteBuffer buffer, int offset) {
+    buffer.putInt(offset, 0);
+  }
+
+  /**
+   * Check that a buffer holds a valid snapshot at an offset.
+   *
+   * @param buffer The buffer holding the snapshot
+   * @param offset The index of the first byte of the snapshot
+   * @return the depth of the stack saved in the snapshot
+   * @throws IllegalArgumentException if the buffer does not hold a valid snapshot
+   */
+  static int validate(ByteBuffer buffer, int offset) {
+    if (buffer.getInt(offset) != MAGIC) {
+      throw new IllegalArgumentException("Not a snapshot");
+    }
+    if (buffer.get(offset + 4) != VERSION) {
+      throw new IllegalArgumentException("Unsupported snapshot version " + buffer.get(offset + 4));
+    }
+    int depth = buffer.get(offset + DEPTH);
+    if (depth < 0 || depth > SRPN.MAX_STACK_SIZE) {
+      throw new IllegalArgumentException("Invalid stack depth " + depth);
+    }
+    if (buffer.getLong(offset + RANDOM_POSITION) < 0) {
+      throw new IllegalArgumentException("Invalid random position");
+    }
+    return depth;
+  }
+}
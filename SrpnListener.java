@@ -0,0 +1,44 @@
+/**
+ * SrpnListener receives the results, displayed stacks and errors produced by {@link SRPN}, as
+ * primitive values rather than formatted text.
+ * <p>
+ * A calculator embedded in another program can be given a listener to capture its results without
+ * parsing output. None of the events allocate, so a listener that does not allocate either keeps
+ * the calculator free of garbage. Formatting events as console output is just one listener,
+ * {@link ConsoleListener}.
+ */
+public interface SrpnListener {
+
+  /**
+   * Called when a value is shown, by = or by a compound operator (e.g. +=) before it is applied.
+   *
+   * @param value The value at the top of the stack
+   */
+  void onResult(int value);
+
+  /**
+   * Called when the stack is displayed by d.
+   *
+   * @param stack The elements of the stack from the bottom, which are only valid during the call
+   *     and must not be modified
+   * @param depth The number of elements on the stack, which may be 0
+   */
+  void onDisplay(int[] stack, int depth);
+
+  /**
+   * Called when a command fails.
+   *
+   * @param error The error that occurred
+   */
+  void onError(ErrorCode error);
+
+  /**
+   * Called when a command is neither an operand nor a recognised operator. By default this is
+   * reported as an {@link ErrorCode#UNRECOGNISED} error.
+   *
+   * @param token The command that was not recognised, which is only valid during the call
+   */
+  default void onUnrecognised(CharSequence token) {
+    this.onError(ErrorCode.UNRECOGNISED);
+  }
+}
@@ -0,0 +1,238 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SrpnProcessor connects a calculator session into a reactive stream: it subscribes to a publisher
+ * of input lines and publishes each line of output they produce.
+ * <p>
+ * Demand flows from the subscriber back to the publisher. A line of input is only requested once
+ * all the output of the previous line has been delivered and the subscriber has asked for more,
+ * so a slow subscriber throttles evaluation, and no more than the output of a single line is ever
+ * buffered. Lines are evaluated on the thread that delivers them, and signals to the subscriber are
+ * serialized as the reactive streams rules require.
+ * <p>
+ * A processor supports a single subscriber. If a command fails, the publisher is cancelled and
+ * the error is passed on to the subscriber after the output the command produced before failing.
+ */
+public final class SrpnProcessor implements Flow.Processor<String, String> {
+
+  /**
+   * The sink collecting the output of the line being evaluated.
+   */
+  private final CollectingOutputSink out = new CollectingOutputSink();
+
+  /**
+   * The calculator evaluating the input lines.
+   */
+  private final SRPN srpn;
+
+  /**
+   * The output waiting to be delivered to the subscriber.
+   */
+  private final Queue<String> buffer = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of output lines the subscriber has requested but not yet received.
+   */
+  private final AtomicLong demand = new AtomicLong();
+
+  /**
+   * The number of times the delivery loop has been asked to run, used to serialize signals.
+   */
+  private final AtomicInteger work = new AtomicInteger();
+
+  /**
+   * The subscription to the publisher of input lines, or null before it is received.
+   */
+  private volatile Flow.Subscription upstream = null;
+
+  /**
+   * The subscriber output is published to, or null before it subscribes.
+   */
+  private volatile Flow.Subscriber<? super String> downstream = null;
+
+  /**
+   * Whether a line of input has been requested and not yet received.
+   */
+  private volatile boolean requested = false;
+
+  /**
+   * Whether the publisher of input lines has completed or failed.
+   */
+  private volatile boolean done = false;
+
+  /**
+   * The failure of the publisher or of a command, or null if there has been none.
+   */
+  private volatile Throwable error = null;
+
+  /**
+   * Whether the subscriber has cancelled its subscription or been sent a terminal signal.
+   */
+  private volatile boolean terminated = false;
+
+  /**
+   * Create a processor evaluating lines in a new session.
+   */
+  public SrpnProcessor() {
+    this.srpn = new SRPN(this.out);
+  }
+
+  /**
+   * Create a processor evaluating lines in a new session that compiles them through a shared
+   * cache.
+   *
+   * @param programs The cache of compiled programs
+   */
+  public SrpnProcessor(ProgramCache programs) {
+    this.srpn = new SRPN(this.out, programs);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super String> subscriber) {
+    synchronized (this) {
+      if (this.downstream == null) {
+        this.downstream = subscriber;
+        subscriber.onSubscribe(new Subscription());
+        this.drain();
+        return;
+      }
+    }
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+      }
+
+      @Override
+      public void cancel() {
+      }
+    });
+    subscriber.onError(new IllegalStateException("SrpnProcessor supports a single subscriber"));
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (this.upstream != null) {
+      subscription.cancel();
+      return;
+    }
+    this.upstream = subscription;
+    this.drain();
+  }
+
+  @Override
+  public void onNext(String line) {
+    if (this.terminated || this.done) {
+      return;
+    }
+    this.out.clear();
+    try {
+      this.srpn.processCommand(line);
+    } catch (RuntimeException e) {
+      // the output produced before the failure is delivered first, as the console prints it
+      this.buffer.addAll(this.out.lines());
+      this.cancelUpstream();
+      this.onError(e);
+      return;
+    }
+    this.buffer.addAll(this.out.lines());
+    // the next line is only requested once the output of this one is buffered
+    this.requested = false;
+    this.drain();
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    this.error = throwable;
+    this.done = true;
+    this.drain();
+  }
+
+  @Override
+  public void onComplete() {
+    this.done = true;
+    this.drain();
+  }
+
+  /**
+   * Deliver buffered output while the subscriber has demand, request the next line of input once
+   * the buffer is empty, and pass on completion once all output has been delivered.
+   * <p>
+   * Only one thread runs the loop at a time; a thread that finds it running leaves the work to the
+   * thread already in it, which goes round again.
+   */
+  private void drain() {
+    if (this.work.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Flow.Subscriber<? super String> subscriber = this.downstream;
+      if (subscriber != null && !this.terminated) {
+        while (this.demand.get() > 0 && !this.terminated) {
+          String line = this.buffer.poll();
+          if (line == null) {
+            break;
+          }
+          this.demand.decrementAndGet();
+          subscriber.onNext(line);
+        }
+        if (this.buffer.isEmpty() && !this.terminated) {
+          if (this.done) {
+            this.terminated = true;
+            Throwable error = this.error;
+            if (error != null) {
+              subscriber.onError(error);
+            } else {
+              subscriber.onComplete();
+            }
+          } else if (this.demand.get() > 0 && !this.requested && this.upstream != null) {
+            this.requested = true;
+            this.upstream.request(1);
+          }
+        }
+      }
+      missed = this.work.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  /**
+   * Cancel the subscription to the publisher of input lines, if there is one.
+   */
+  private void cancelUpstream() {
+    Flow.Subscription upstream = this.upstream;
+    if (upstream != null) {
+      upstream.cancel();
+    }
+  }
+
+  /**
+   * Subscription is the subscriber's handle on the processor.
+   */
+  private final class Subscription implements Flow.Subscription {
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        // the subscriber is told of its mistake at once, without the output waiting for it
+        SrpnProcessor.this.cancelUpstream();
+        SrpnProcessor.this.buffer.clear();
+        SrpnProcessor.this.onError(
+            new IllegalArgumentException("Requested " + n + " items, must be positive"));
+        return;
+      }
+      SrpnProcessor.this.demand.getAndUpdate(
+          demand -> demand + n < 0 ? Long.MAX_VALUE : demand + n);
+      SrpnProcessor.this.drain();
+    }
+
+    @Override
+    public void cancel() {
+      SrpnProcessor.this.terminated = true;
+      SrpnProcessor.this.cancelUpstream();
+    }
+  }
+}
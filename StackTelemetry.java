@@ -0,0 +1,224 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * StackTelemetry tracks the health of calculator stacks: how deep they are, how often they
+ * overflow or underflow, and how often results are saturated to the limits of an Integer.
+ * <p>
+ * Every event is a single increment of a striped counter, and telemetry can be shared by
+ * calculators on many threads. Observing a calculator does however keep its lines off the compiled
+ * tier (see {@link SRPN#setObserver(ExecutionObserver)}), so hot lines run 4 to 15 times slower
+ * while telemetry is enabled.
+ *
+ * @see SRPN#setObserver(ExecutionObserver)
+ */
+public final class StackTelemetry implements ExecutionObserver, StackTelemetryMXBean {
+
+  /**
+   * The distance from the legacy stack limit considered to be near it.
+   */
+  private static final int NEAR_LIMIT = 3;
+
+  /**
+   * The number of operations after which the stack held each number of values.
+   */
+  private final LongAdder[] depths = new LongAdder[SRPN.MAX_STACK_SIZE + 1];
+
+  /**
+   * The number of results saturated by each operator, indexed by ordinal times two, plus one for
+   * results clamped to the maximum.
+   */
+  private final LongAdder[] saturations = new LongAdder[Opcode.VALUES.length * 2];
+
+  /**
+   * The number of stack overflows.
+   */
+  private final LongAdder overflows = new LongAdder();
+
+  /**
+   * The number of stack underflows.
+   */
+  private final LongAdder underflows = new LongAdder();
+
+  /**
+   * Create a telemetry surface with all counts at 0.
+   */
+  public StackTelemetry() {
+    for (int i = 0; i < this.depths.length; i++) {
+      this.depths[i] = new LongAdder();
+    }
+    for (int i = 0; i < this.saturations.length; i++) {
+      this.saturations[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void onOperator(Opcode opcode) {
+  }
+
+  @Override
+  public void onError(ErrorCode error) {
+    if (error == ErrorCode.STACK_OVERFLOW) {
+      this.overflows.increment();
+    } else if (error == ErrorCode.STACK_UNDERFLOW) {
+      this.underflows.increment();
+    }
+  }
+
+  @Override
+  public void onLine(long nanos) {
+  }
+
+  @Override
+  public void onDepth(int depth) {
+    this.depths[depth].increment();
+  }
+
+  @Override
+  public void onSaturation(Opcode opcode, boolean maximum) {
+    this.saturations[opcode.ordinal() * 2 + (maximum ? 1 : 0)].increment();
+  }
+
+  /**
+   * Get the number of results saturated by an operator in one direction.
+   *
+   * @param opcode The operator whose results are counted
+   * @param maximum true to count results clamped to the maximum, false for the minimum
+   * @return the number of saturated results
+   */
+  public long saturations(Opcode opcode, boolean maximum) {
+    return this.saturations[opcode.ordinal() * 2 + (maximum ? 1 : 0)].sum();
+  }
+
+  /**
+   * Get the number of operations sampled.
+   *
+   * @return the number of operands and operators processed
+   */
+  public long operations() {
+    long operations = 0;
+    for (LongAdder depth : this.depths) {
+      operations += depth.sum();
+    }
+    return operations;
+  }
+
+  @Override
+  public long[] getDepthHistogram() {
+    long[] histogram = new long[this.depths.length];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = this.depths[i].sum();
+    }
+    return histogram;
+  }
+
+  @Override
+  public double getNearLimitFraction() {
+    long near = 0;
+    for (int i = SRPN.MAX_STACK_SIZE - NEAR_LIMIT; i <= SRPN.MAX_STACK_SIZE; i++) {
+      near += this.depths[i].sum();
+    }
+    return rate(near, this.operations());
+  }
+
+  @Override
+  public Map<String, Long> getSaturations() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Opcode opcode : Opcode.VALUES) {
+      if (opcode.results == 1 && opcode.operands == 2) {
+        counts.put(opcode.name() + ".MAX", this.saturations(opcode, true));
+        counts.put(opcode.name() + ".MIN", this.saturations(opcode, false));
+      }
+    }
+    return counts;
+  }
+
+  @Override
+  public double getOverflowRate() {
+    return rate(this.overflows.sum(), this.operations());
+  }
+
+  @Override
+  public double getUnderflowRate() {
+    return rate(this.underflows.sum(), this.operations());
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder counter : this.depths) {
+      counter.reset();
+    }
+    for (LongAdder counter : this.saturations) {
+      counter.reset();
+    }
+    this.overflows.reset();
+    this.underflows.reset();
+  }
+
+  /**
+   * Expose the telemetry over JMX through the platform MBean server.
+   *
+   * @param name The name distinguishing this telemetry from others in the same JVM
+   * @throws JMException if the telemetry could not be registered
+   */
+  public void register(String name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        new ObjectName("srpn:type=StackTelemetry,name=" + ObjectName.quote(name)));
+  }
+
+  /**
+   * Write the telemetry to a stream at a fixed interval, from a daemon thread.
+   *
+   * @param out The stream the telemetry is written to
+   * @param periodSeconds The number of seconds between each dump
+   * @return the scheduler writing the telemetry, which can be shut down to stop it
+   */
+  public ScheduledExecutorService startDump(PrintStream out, long periodSeconds) {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "srpn-telemetry");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(() -> out.println(this.dump()), periodSeconds, periodSeconds,
+        TimeUnit.SECONDS);
+    return scheduler;
+  }
+
+  /**
+   * Describe the telemetry as text.
+   *
+   * @return the depth histogram, saturation counts and error rates recorded so far
+   */
+  public String dump() {
+    StringBuilder text = new StringBuilder("depths:");
+    long[] histogram = this.getDepthHistogram();
+    for (int i = 0; i < histogram.length; i++) {
+      text.append(' ').append(i).append('=').append(histogram[i]);
+    }
+    text.append(String.format("%nnear limit: %.4f overflow rate: %.4f underflow rate: %.4f",
+        this.getNearLimitFraction(), this.getOverflowRate(), this.getUnderflowRate()));
+    text.append("\nsaturations:");
+    this.getSaturations().forEach((key, count) -> text.append(' ').append(key).append('=')
+        .append(count));
+    return text.toString();
+  }
+
+  /**
+   * Divide a count of events by a count of operations.
+   *
+   * @param events The number of events
+   * @param operations The number of operations
+   * @return the fraction of operations with an event, or 0 if there were no operations
+   */
+  private static double rate(long events, long operations) {
+    return operations == 0 ? 0 : (double) events / operations;
+  }
+}
@@ -0,0 +1,48 @@
+import java.util.Map;
+
+/**
+ * StackTelemetryMXBean is the management interface through which {@link StackTelemetry} is
+ * exposed over JMX.
+ */
+public interface StackTelemetryMXBean {
+
+  /**
+   * Get the number of operations after which the stack held each number of values.
+   *
+   * @return the count for each depth from 0 to the legacy limit of 23
+   */
+  long[] getDepthHistogram();
+
+  /**
+   * Get the fraction of operations after which the stack was within 3 values of the legacy limit.
+   *
+   * @return the fraction of operations near the stack limit
+   */
+  double getNearLimitFraction();
+
+  /**
+   * Get the number of results saturated by each operator in each direction.
+   *
+   * @return the count of saturated results, keyed by opcode name and MAX or MIN (e.g. ADD.MAX)
+   */
+  Map<String, Long> getSaturations();
+
+  /**
+   * Get the fraction of operations that overflowed the stack.
+   *
+   * @return the stack overflow rate
+   */
+  double getOverflowRate();
+
+  /**
+   * Get the fraction of operations that underflowed the stack.
+   *
+   * @return the stack underflow rate
+   */
+  double getUnderflowRate();
+
+  /**
+   * Discard all telemetry recorded so far.
+   */
+  void reset();
+}
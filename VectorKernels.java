@@ -0,0 +1,169 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorKernels applies the saturating add, subtract and multiply of {@link SRPN} to whole arrays
+ * of operands with the Vector API, for {@link ColumnEvaluator}.
+ * <p>
+ * The Vector API is an incubator module in this version of Java, so this class only links when the
+ * JVM is started with {@code --add-modules jdk.incubator.vector}, and must not be used unless
+ * {@link #AVAILABLE} is true. Each kernel handles the rows that fill whole vectors and leaves the
+ * rest to a scalar loop, and every result is identical to {@link SRPN#saturate(long)} of the exact
+ * result.
+ */
+final class VectorKernels {
+
+  /**
+   * Whether the Vector API can be used, which requires the incubator module to be present and
+   * can be turned off by setting {@code srpn.vector} to false.
+   */
+  static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector")
+      .isPresent() && Boolean.parseBoolean(System.getProperty("srpn.vector", "true"));
+
+  private VectorKernels() {
+  }
+
+  /**
+   * Replace each element of an array with the saturated sum of it and the element of another.
+   *
+   * @param a The first operands, replaced with the results
+   * @param b The second operands
+   * @param count The number of elements
+   */
+  static void add(int[] a, int[] b, int count) {
+    Kernel.add(a, b, count);
+  }
+
+  /**
+   * Replace each element of an array with the saturated difference of it and the element of
+   * another.
+   *
+   * @param a The first operands, replaced with the results
+   * @param b The second operands
+   * @param count The number of elements
+   */
+  static void subtract(int[] a, int[] b, int count) {
+    Kernel.subtract(a, b, count);
+  }
+
+  /**
+   * Replace each element of an array with the saturated product of it and the element of another.
+   *
+   * @param a The first operands, replaced with the results
+   * @param b The second operands
+   * @param count The number of elements
+   */
+  static void multiply(int[] a, int[] b, int count) {
+    Kernel.multiply(a, b, count);
+  }
+
+  /**
+   * Kernel holds the vector species, which are only initialized, and the incubator module only
+   * linked, when a kernel is first run.
+   */
+  private static final class Kernel {
+
+    /**
+     * The preferred shape of int vectors on this platform.
+     */
+    static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Long vectors of the same shape, each holding half as many lanes.
+     */
+    static final VectorSpecies<Long> LONGS = VectorSpecies.of(long.class, INTS.vectorShape());
+
+    /**
+     * An int vector of the maximum value in every lane.
+     */
+    static final IntVector MAX = IntVector.broadcast(INTS, Integer.MAX_VALUE);
+
+    /**
+     * @see VectorKernels#add(int[], int[], int)
+     */
+    static void add(int[] a, int[] b, int count) {
+      int bound = INTS.loopBound(count);
+      int i = 0;
+      for (; i < bound; i += INTS.length()) {
+        IntVector x = IntVector.fromArray(INTS, a, i);
+        IntVector y = IntVector.fromArray(INTS, b, i);
+        IntVector sum = x.add(y);
+        // the sum overflowed if its sign differs from that of both operands
+        VectorMask<Integer> overflow = x.lanewise(VectorOperators.XOR, sum)
+            .and(y.lanewise(VectorOperators.XOR, sum)).compare(VectorOperators.LT, 0);
+        sum.blend(limit(x), overflow).intoArray(a, i);
+      }
+      for (; i < count; i++) {
+        a[i] = SRPN.saturate((long) a[i] + b[i]);
+      }
+    }
+
+    /**
+     * @see VectorKernels#subtract(int[], int[], int)
+     */
+    static void subtract(int[] a, int[] b, int count) {
+      int bound = INTS.loopBound(count);
+      int i = 0;
+      for (; i < bound; i += INTS.length()) {
+        IntVector x = IntVector.fromArray(INTS, a, i);
+        IntVector y = IntVector.fromArray(INTS, b, i);
+        IntVector difference = x.sub(y);
+        // the difference overflowed if the operands differ in sign and it differs from the first
+        VectorMask<Integer> overflow = x.lanewise(VectorOperators.XOR, y)
+            .and(x.lanewise(VectorOperators.XOR, difference)).compare(VectorOperators.LT, 0);
+        difference.blend(limit(x), overflow).intoArray(a, i);
+      }
+      for (; i < count; i++) {
+        a[i] = SRPN.saturate((long) a[i] - b[i]);
+      }
+    }
+
+    /**
+     * @see VectorKernels#multiply(int[], int[], int)
+     */
+    static void multiply(int[] a, int[] b, int count) {
+      int bound = INTS.loopBound(count);
+      int i = 0;
+      for (; i < bound; i += INTS.length()) {
+        IntVector x = IntVector.fromArray(INTS, a, i);
+        IntVector y = IntVector.fromArray(INTS, b, i);
+        // each half of the lanes is multiplied exactly as longs, clamped and narrowed again
+        IntVector low = (IntVector) product(x, y, 0).convertShape(VectorOperators.L2I, INTS, 0);
+        IntVector high = (IntVector) product(x, y, 1).convertShape(VectorOperators.L2I, INTS, -1);
+        low.or(high).intoArray(a, i);
+      }
+      for (; i < count; i++) {
+        a[i] = SRPN.saturate((long) a[i] * b[i]);
+      }
+    }
+
+    /**
+     * Multiply half of the lanes of two int vectors as longs, saturated to the limits of an
+     * Integer.
+     *
+     * @param x The first operands
+     * @param y The second operands
+     * @param part 0 for the lower half of the lanes, 1 for the upper half
+     * @return the saturated products as longs
+     */
+    private static LongVector product(IntVector x, IntVector y, int part) {
+      LongVector wideX = (LongVector) x.convertShape(VectorOperators.I2L, LONGS, part);
+      LongVector wideY = (LongVector) y.convertShape(VectorOperators.I2L, LONGS, part);
+      return wideX.mul(wideY).max(Integer.MIN_VALUE).min(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the limit a result saturates to in each lane, which has the sign of the first operand:
+     * the maximum value where it is positive or 0, and the minimum value where it is negative.
+     *
+     * @param x The first operands
+     * @return the limit of each lane
+     */
+    private static IntVector limit(IntVector x) {
+      return x.lanewise(VectorOperators.ASHR, 31).lanewise(VectorOperators.XOR, MAX);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package srpn.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ArithmeticBenchmark measures the saturation and power kernels, and compares the integer power
+ * kernel with the floating point calculation used by the legacy program.
+ * <p>
+ * Each operation takes the next of eight inputs, covering values within and beyond the limits of
+ * an Integer, so that neither the branches nor the results are constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ArithmeticBenchmark {
+
+  /**
+   * The values saturated.
+   */
+  private final long[] values = {0, 1, -1, Integer.MAX_VALUE + 1L, Integer.MIN_VALUE - 1L,
+      Long.MAX_VALUE, Long.MIN_VALUE, 123456789L};
+
+  /**
+   * The bases raised to a power.
+   */
+  private final int[] bases = {2, -3, 7, 10, 46341, -1291, 1, 0};
+
+  /**
+   * The exponents the bases are raised to.
+   */
+  private final int[] exponents = {10, 7, 11, 9, 2, 3, 1000, -1};
+
+  /**
+   * The index of the next input.
+   */
+  private int index = 0;
+
+  @Benchmark
+  public int saturate() {
+    return Calculator.saturate(this.values[this.index++ & 7]);
+  }
+
+  @Benchmark
+  public int powerKernel() {
+    int i = this.index++ & 7;
+    return Calculator.saturate(Calculator.power(this.bases[i], this.exponents[i]));
+  }
+
+  @Benchmark
+  public int powerLegacy() {
+    int i = this.index++ & 7;
+    return Calculator.saturate((long) Math.pow(this.bases[i], this.exponents[i]));
+  }
+}
@@ -0,0 +1,27 @@
+package srpn.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmarks runs the JMH benchmarks with the GC allocation profiler, so that the bytes allocated
+ * per operation are reported alongside the time, unless the arguments name a profiler of their own.
+ * <p>
+ * Usage: java -jar benchmarks.jar [JMH options] [benchmark regexp]
+ */
+public final class Benchmarks {
+
+  private Benchmarks() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<String> options = new ArrayList<>(Arrays.asList(args));
+    if (!options.contains("-prof") && !options.contains("-h") && !options.contains("-l")) {
+      options.add(0, "gc");
+      options.add(0, "-prof");
+    }
+    org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+  }
+}
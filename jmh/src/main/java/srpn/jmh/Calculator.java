@@ -0,0 +1,409 @@
+package srpn.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Calculator gives benchmarks access to an SRPN session and the kernels they measure.
+ * <p>
+ * JMH requires benchmarks to be in a named package, while the calculator is in the default package,
+ * which no named package can refer to. The classes of the calculator are therefore looked up by
+ * name, once, and called through constant method handles, which the JIT compiles to direct calls.
+ * Both are on the class path, so package-private members can be reached the same way.
+ * <p>
+ * Output is written to a HashingOutputSink, which formats each line without allocating and folds it
+ * into a hash. Benchmarks return the hash, so that no part of a command, including the output it
+ * produces, can be eliminated as dead code.
+ */
+final class Calculator {
+
+  /**
+   * The maximum number of operands on the stack.
+   */
+  static final int MAX_STACK_SIZE = 23;
+
+  /**
+   * The HashingOutputSink constructor, returning Object.
+   */
+  private static final MethodHandle NEW_SINK;
+
+  /**
+   * The SRPN constructor taking an OutputSink, as (Object)Object.
+   */
+  private static final MethodHandle NEW_SRPN;
+
+  /**
+   * SRPN.processCommand, as (Object, String)void.
+   */
+  private static final MethodHandle PROCESS_COMMAND;
+
+  /**
+   * SRPN.processSingleCommand, as (Object, String)void.
+   */
+  private static final MethodHandle PROCESS_SINGLE_COMMAND;
+
+  /**
+   * SRPN.setObserver, as (Object, Object)void.
+   */
+  private static final MethodHandle SET_OBSERVER;
+
+  /**
+   * The StackTelemetry constructor, returning Object.
+   */
+  private static final MethodHandle NEW_TELEMETRY;
+
+  /**
+   * The Metrics constructor, returning Object.
+   */
+  private static final MethodHandle NEW_METRICS;
+
+  /**
+   * SRPN.reset, as (Object)void.
+   */
+  private static final MethodHandle RESET;
+
+  /**
+   * HashingOutputSink.hash, as (Object)long.
+   */
+  private static final MethodHandle HASH;
+
+  /**
+   * SRPN.saturate, as (long)int.
+   */
+  private static final MethodHandle SATURATE;
+
+  /**
+   * IntMath.power, as (int, int)long.
+   */
+  private static final MethodHandle POWER;
+
+  /**
+   * ColumnEvaluator.compile, as (String, String)Object.
+   */
+  private static final MethodHandle COMPILE_COLUMNS;
+
+  /**
+   * ColumnEvaluator.evaluate, as (Object, int[][], int[], byte[])void.
+   */
+  private static final MethodHandle EVALUATE_COLUMNS;
+
+  /**
+   * The OffHeapSessionStore constructor, returning Object.
+   */
+  private static final MethodHandle NEW_STORE;
+
+  /**
+   * OffHeapSessionStore.open, as (Object)int.
+   */
+  private static final MethodHandle OPEN_SESSION;
+
+  /**
+   * OffHeapSessionStore.evaluate, as (Object, int, String, Object)void.
+   */
+  private static final MethodHandle EVALUATE_SESSION;
+
+  /**
+   * An SrpnListener that fails if a command reports anything, since stored sessions are measured
+   * with commands that produce no output.
+   */
+  private static final Object SILENT_LISTENER;
+
+  static {
+    try {
+      Class<?> srpn = Class.forName("SRPN");
+      Class<?> sink = Class.forName("HashingOutputSink");
+      Class<?> outputSink = Class.forName("OutputSink");
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      NEW_SINK = lookup.unreflectConstructor(sink.getConstructor())
+          .asType(MethodType.methodType(Object.class));
+      NEW_SRPN = lookup.unreflectConstructor(srpn.getConstructor(outputSink))
+          .asType(MethodType.methodType(Object.class, Object.class));
+      PROCESS_COMMAND = lookup.unreflect(srpn.getMethod("processCommand", String.class))
+          .asType(MethodType.methodType(void.class, Object.class, String.class));
+      PROCESS_SINGLE_COMMAND =
+          lookup.unreflect(srpn.getMethod("processSingleCommand", String.class))
+              .asType(MethodType.methodType(void.class, Object.class, String.class));
+      SET_OBSERVER = lookup.unreflect(
+          srpn.getMethod("setObserver", Class.forName("ExecutionObserver")))
+          .asType(MethodType.methodType(void.class, Object.class, Object.class));
+      NEW_TELEMETRY = lookup.unreflectConstructor(
+          Class.forName("StackTelemetry").getConstructor())
+          .asType(MethodType.methodType(Object.class));
+      NEW_METRICS = lookup.unreflectConstructor(Class.forName("Metrics").getConstructor())
+          .asType(MethodType.methodType(Object.class));
+      RESET = lookup.unreflect(accessible(srpn.getDeclaredMethod("reset")))
+          .asType(MethodType.methodType(void.class, Object.class));
+      HASH = lookup.unreflect(sink.getMethod("hash"))
+          .asType(MethodType.methodType(long.class, Object.class));
+      SATURATE = lookup.unreflect(accessible(srpn.getDeclaredMethod("saturate", long.class)));
+      POWER = lookup.unreflect(accessible(
+          Class.forName("IntMath").getDeclaredMethod("power", int.class, int.class)));
+      Class<?> columns = Class.forName("ColumnEvaluator");
+      COMPILE_COLUMNS = lookup.unreflect(columns.getMethod("compile", String.class, String.class))
+          .asType(MethodType.methodType(Object.class, String.class, String.class));
+      EVALUATE_COLUMNS = lookup.unreflect(
+          columns.getMethod("evaluate", int[][].class, int[].class, byte[].class))
+          .asType(MethodType.methodType(void.class, Object.class, int[][].class, int[].class,
+              byte[].class));
+      Class<?> store = Class.forName("OffHeapSessionStore");
+      Class<?> listener = Class.forName("SrpnListener");
+      NEW_STORE = lookup.unreflectConstructor(store.getConstructor())
+          .asType(MethodType.methodType(Object.class));
+      OPEN_SESSION = lookup.unreflect(store.getMethod("open"))
+          .asType(MethodType.methodType(int.class, Object.class));
+      EVALUATE_SESSION = lookup.unreflect(
+          store.getMethod("evaluate", int.class, String.class, listener))
+          .asType(MethodType.methodType(void.class, Object.class, int.class, String.class,
+              Object.class));
+      SILENT_LISTENER = Proxy.newProxyInstance(listener.getClassLoader(),
+          new Class<?>[] {listener}, (proxy, method, args) -> {
+            throw new IllegalStateException("Unexpected output from " + method.getName());
+          });
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * The sink the output of the session is hashed into.
+   */
+  private final Object sink;
+
+  /**
+   * The session.
+   */
+  private final Object srpn;
+
+  /**
+   * Create a session with an empty stack.
+   */
+  Calculator() {
+    try {
+      this.sink = NEW_SINK.invokeExact();
+      this.srpn = NEW_SRPN.invokeExact(this.sink);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Process a line of input.
+   *
+   * @param command The line to be processed
+   */
+  void processCommand(String command) {
+    try {
+      PROCESS_COMMAND.invokeExact(this.srpn, command);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Process a single operator.
+   *
+   * @param command The operator to be processed
+   */
+  void processSingleCommand(String command) {
+    try {
+      PROCESS_SINGLE_COMMAND.invokeExact(this.srpn, command);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Attach a new observer to the session.
+   *
+   * @param observer "telemetry" for a StackTelemetry, "metrics" for a Metrics, or "none" to detach
+   *     the observer
+   */
+  void observe(String observer) {
+    try {
+      Object instance;
+      switch (observer) {
+        case "telemetry":
+          instance = NEW_TELEMETRY.invokeExact();
+          break;
+        case "metrics":
+          instance = NEW_METRICS.invokeExact();
+          break;
+        case "none":
+          instance = null;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown observer " + observer);
+      }
+      SET_OBSERVER.invokeExact(this.srpn, instance);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Empty the stack and restart the list of randoms.
+   */
+  void reset() {
+    try {
+      RESET.invokeExact(this.srpn);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Fill the stack to its limit with small operands.
+   */
+  void fill() {
+    this.reset();
+    for (int i = 0; i < MAX_STACK_SIZE; i++) {
+      this.processCommand(Integer.toString(i % 7 + 2));
+    }
+  }
+
+  /**
+   * Get the hash of all output so far.
+   *
+   * @return the hash of the output of the session
+   */
+  long hash() {
+    try {
+      return (long) HASH.invokeExact(this.sink);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Saturate a value to the limits of an Integer, as SRPN.saturate does.
+   *
+   * @param value The value to be saturated
+   * @return the saturated value
+   */
+  static int saturate(long value) {
+    try {
+      return (int) SATURATE.invokeExact(value);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Raise a base to an exponent with the integer kernel, IntMath.power.
+   *
+   * @param base The base
+   * @param exponent The exponent
+   * @return the power, or a value beyond the limits of an Integer with the sign of the power
+   */
+  static long power(int base, int exponent) {
+    try {
+      return (long) POWER.invokeExact(base, exponent);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Compile a program over input columns, with ColumnEvaluator.compile.
+   *
+   * @param program The program to be evaluated for each row
+   * @param columnNames The letters standing for the input columns
+   * @return the ColumnEvaluator
+   */
+  static Object compileColumns(String program, String columnNames) {
+    try {
+      return COMPILE_COLUMNS.invokeExact(program, columnNames);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Evaluate a compiled program for every row of its input columns, with
+   * ColumnEvaluator.evaluate.
+   *
+   * @param evaluator The ColumnEvaluator
+   * @param columns The input columns
+   * @param results The array the result of each row is written to
+   * @param status The array the status of each row is written to
+   */
+  static void evaluateColumns(Object evaluator, int[][] columns, int[] results, byte[] status) {
+    try {
+      EVALUATE_COLUMNS.invokeExact(evaluator, columns, results, status);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Create an empty OffHeapSessionStore.
+   *
+   * @return the store
+   */
+  static Object newSessionStore() {
+    try {
+      return NEW_STORE.invokeExact();
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Open a session in an OffHeapSessionStore.
+   *
+   * @param store The store
+   * @return the id of the session
+   */
+  static int openSession(Object store) {
+    try {
+      return (int) OPEN_SESSION.invokeExact(store);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Process a command that produces no output for a session of an OffHeapSessionStore.
+   *
+   * @param store The store
+   * @param id The id of the session
+   * @param command The command to be processed
+   */
+  static void evaluateSession(Object store, int id, String command) {
+    try {
+      EVALUATE_SESSION.invokeExact(store, id, command, SILENT_LISTENER);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Make a package-private method of the calculator callable.
+   *
+   * @param method The method
+   * @return the method
+   */
+  private static Method accessible(Method method) {
+    method.setAccessible(true);
+    return method;
+  }
+
+  /**
+   * Pass on a failure thrown through a method handle.
+   *
+   * @param e The failure
+   * @return never returns normally
+   */
+  private static RuntimeException rethrow(Throwable e) {
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    throw new IllegalStateException(e);
+  }
+}
@@ -0,0 +1,92 @@
+package srpn.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ColumnBenchmark measures ColumnEvaluator on a block of rows with the Vector API kernels and with
+ * the scalar loops the JIT may auto-vectorize, so the two can be compared.
+ * <p>
+ * The forks are started with the incubator module, and each setting of the kernels runs in forks
+ * of its own, since the setting is read once when the kernels are first used. The result is the
+ * sum of the results, so that no row can be eliminated as dead code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ColumnBenchmark {
+
+  /**
+   * The number of rows evaluated.
+   */
+  private static final int ROWS = 4096;
+
+  /**
+   * Whether the Vector API kernels are used.
+   */
+  @Param({"true", "false"})
+  public String vector;
+
+  /**
+   * The program evaluated for each row.
+   */
+  @Param({"a b + c *", "a b * c - a +"})
+  public String program;
+
+  /**
+   * The compiled program.
+   */
+  private Object evaluator;
+
+  /**
+   * The input columns, of random values across the whole range.
+   */
+  private final int[][] columns = new int[3][ROWS];
+
+  /**
+   * The result of each row.
+   */
+  private final int[] results = new int[ROWS];
+
+  /**
+   * The status of each row.
+   */
+  private final byte[] status = new byte[ROWS];
+
+  @Setup
+  public void setUp() {
+    // read when the kernels are first used, which is after this in a fresh fork
+    System.setProperty("srpn.vector", this.vector);
+    this.evaluator = Calculator.compileColumns(this.program, "abc");
+    Random random = new Random(1);
+    for (int[] column : this.columns) {
+      for (int i = 0; i < ROWS; i++) {
+        column[i] = random.nextInt(1 << 20) - (1 << 19);
+      }
+    }
+  }
+
+  @Benchmark
+  public long evaluate() {
+    Calculator.evaluateColumns(this.evaluator, this.columns, this.results, this.status);
+    long sum = 0;
+    for (int result : this.results) {
+      sum += result;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,55 @@
+package srpn.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FullStackBenchmark measures the power operator and display on a stack filled to its limit of 23
+ * operands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FullStackBenchmark {
+
+  /**
+   * The session with a full stack.
+   */
+  private Calculator calculator;
+
+  @Setup
+  public void setUp() {
+    this.calculator = new Calculator();
+    this.calculator.fill();
+  }
+
+  /**
+   * Raise the top two operands to a power, then push an operand to fill the stack again.
+   *
+   * @return the hash of the output
+   */
+  @Benchmark
+  public long power() {
+    this.calculator.processSingleCommand("^");
+    this.calculator.processCommand("3");
+    return this.calculator.hash();
+  }
+
+  @Benchmark
+  public long display() {
+    this.calculator.processSingleCommand("d");
+    return this.calculator.hash();
+  }
+}
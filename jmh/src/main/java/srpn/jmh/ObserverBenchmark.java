@@ -0,0 +1,77 @@
+package srpn.jmh;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ObserverBenchmark measures the cost of instrumenting a session, by running hot lines with no
+ * observer, with the StackTelemetry of -Dsrpn.telemetry and with the Metrics of -Dsrpn.metrics.
+ * <p>
+ * Without an observer hot lines run on the compiled tier, and constant runs are folded. An observer
+ * takes every line back to the interpreter, so the difference is mostly that of the tiers rather
+ * than of the events. Each combination runs in forks of its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ObserverBenchmark {
+
+  /**
+   * The lines measured, by name.
+   */
+  private static final Map<String, String> LINES = Map.of(
+      "shortArithmetic", "10 2 + =",
+      "foldedConstants", "2 3 ^ 4 * 5 6 * + 7 - =",
+      "longOperandRun", "1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 21 22 "
+          + "+++++++++++++++++++++ =");
+
+  /**
+   * The name of the line measured.
+   */
+  @Param({"shortArithmetic", "foldedConstants", "longOperandRun"})
+  public String line;
+
+  /**
+   * The observer attached to the session: none, telemetry or metrics.
+   */
+  @Param({"none", "telemetry", "metrics"})
+  public String observer;
+
+  /**
+   * The text of the line measured.
+   */
+  private String command;
+
+  /**
+   * The session the line is run in.
+   */
+  private Calculator calculator;
+
+  @Setup
+  public void setUp() {
+    this.command = LINES.get(this.line);
+    this.calculator = new Calculator();
+    this.calculator.observe(this.observer);
+  }
+
+  @Benchmark
+  public long processCommand() {
+    this.calculator.reset();
+    this.calculator.processCommand(this.command);
+    return this.calculator.hash();
+  }
+}
@@ -0,0 +1,79 @@
+package srpn.jmh;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ProcessCommandBenchmark measures processCommand on representative lines of input, each run
+ * from an empty stack.
+ * <p>
+ * Lines executed often enough are compiled to bytecode, so each line is measured with the compiled
+ * tier disabled and at its default threshold. Each combination runs in forks of its own, so the
+ * profile gathered for one line or tier cannot affect another.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ProcessCommandBenchmark {
+
+  /**
+   * The lines measured, by name.
+   */
+  private static final Map<String, String> LINES = Map.of(
+      "shortArithmetic", "10 2 + =",
+      "longOperandRun", "1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 21 22 "
+          + "+++++++++++++++++++++ =",
+      "commentHeavy", "# a long comment describing the calculation in words # 3 4 * =",
+      "errorHeavy", "+ - 1 / x 0 / =");
+
+  /**
+   * The name of the line measured.
+   */
+  @Param({"shortArithmetic", "longOperandRun", "commentHeavy", "errorHeavy"})
+  public String line;
+
+  /**
+   * The number of executions after which a line is compiled, or -1 to interpret every line.
+   */
+  @Param({"-1", "1000"})
+  public String jitThreshold;
+
+  /**
+   * The text of the line measured.
+   */
+  private String command;
+
+  /**
+   * The session the line is run in.
+   */
+  private Calculator calculator;
+
+  @Setup
+  public void setUp() {
+    // read when the compiler is first used, which is after this in a fresh fork
+    System.setProperty("srpn.jit.threshold", this.jitThreshold);
+    this.command = LINES.get(this.line);
+    this.calculator = new Calculator();
+  }
+
+  @Benchmark
+  public long processCommand() {
+    this.calculator.reset();
+    this.calculator.processCommand(this.command);
+    return this.calculator.hash();
+  }
+}
@@ -0,0 +1,89 @@
+package srpn.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SessionStoreBenchmark measures the cost of keeping sessions in an OffHeapSessionStore, which
+ * loads the slot of a session into a calculator before each command and stores it back after.
+ * <p>
+ * The same command is processed by a session of its own, as a baseline, and by stored sessions in
+ * turn, so the difference is the cost of the copies and the lock. Each session holds a single
+ * operand, and the command adds to it without producing output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SessionStoreBenchmark {
+
+  /**
+   * The command processed, which leaves the depth of the stack unchanged.
+   */
+  private static final String COMMAND = "3 +";
+
+  /**
+   * The number of stored sessions the command is processed for in turn, from one whose slot stays
+   * in the cache to more than fit in it.
+   */
+  @Param({"1", "65536"})
+  public int sessions;
+
+  /**
+   * The store.
+   */
+  private Object store;
+
+  /**
+   * The ids of the stored sessions.
+   */
+  private int[] ids;
+
+  /**
+   * The index of the next stored session.
+   */
+  private int next = 0;
+
+  /**
+   * The session of its own.
+   */
+  private Calculator calculator;
+
+  @Setup
+  public void setUp() {
+    this.store = Calculator.newSessionStore();
+    this.ids = new int[this.sessions];
+    for (int i = 0; i < this.sessions; i++) {
+      this.ids[i] = Calculator.openSession(this.store);
+      Calculator.evaluateSession(this.store, this.ids[i], "5");
+    }
+    this.calculator = new Calculator();
+    this.calculator.processCommand("5");
+  }
+
+  @Benchmark
+  public long ownSession() {
+    this.calculator.processCommand(COMMAND);
+    return this.calculator.hash();
+  }
+
+  @Benchmark
+  public int storedSession() {
+    int id = this.ids[this.next];
+    this.next = this.next + 1 == this.ids.length ? 0 : this.next + 1;
+    Calculator.evaluateSession(this.store, id, COMMAND);
+    return id;
+  }
+}
@@ -0,0 +1,81 @@
+package srpn.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SingleCommandBenchmark measures processSingleCommand for each operator, applied to the operands 7
+ * and 3. Pushing the operands is measured on its own by {@link Operands}, to be subtracted from
+ * the rest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SingleCommandBenchmark {
+
+  /**
+   * The operator measured.
+   */
+  @Param({"=", "+", "-", "*", "/", "%", "^", "d", "r", "+=", "-=", "*=", "/=", "%=", "^="})
+  public String operator;
+
+  /**
+   * The session the operator is applied in.
+   */
+  private Calculator calculator;
+
+  @Setup
+  public void setUp() {
+    this.calculator = new Calculator();
+  }
+
+  @Benchmark
+  public long processSingleCommand() {
+    this.calculator.reset();
+    this.calculator.processCommand("7 3");
+    this.calculator.processSingleCommand(this.operator);
+    return this.calculator.hash();
+  }
+
+  /**
+   * Operands measures pushing the operands alone.
+   */
+  @State(Scope.Thread)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  @Warmup(iterations = 5, time = 1)
+  @Measurement(iterations = 5, time = 1)
+  @Fork(2)
+  public static class Operands {
+
+    /**
+     * The session the operands are pushed in.
+     */
+    private Calculator calculator;
+
+    @Setup
+    public void setUp() {
+      this.calculator = new Calculator();
+    }
+
+    @Benchmark
+    public long operandsOnly() {
+      this.calculator.reset();
+      this.calculator.processCommand("7 3");
+      return this.calculator.hash();
+    }
+  }
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsyncCalculatorTest checks that an {@link AsyncCalculator} runs the commands of each session in
+ * the order they were submitted, from many threads at once, and reports failed commands with the
+ * output they produced.
+ * <p>
+ * Threads submit random lines from {@link DifferentialTest} to sessions of their own, more lines
+ * per session than a batch, and the output of every future is compared with a calculator of the
+ * session's own fed the same lines. A line that throws must complete its future with a
+ * {@link AsyncCalculator.CommandException} holding the output produced before the throw and the
+ * exception thrown as its cause, and the session must go on. Every thread also adds to one session
+ * shared by all of them, which must not lose an addition, and the counters of the calculator must
+ * agree once every future is complete.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first failure is printed and the test
+ * exits with status 1.
+ * <p>
+ * Usage: java AsyncCalculatorTest [sessions] [seed]
+ */
+class AsyncCalculatorTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 22;
+
+  /**
+   * The number of sessions when no number is given.
+   */
+  private static final int SESSIONS = 256;
+
+  /**
+   * The number of lines submitted to each session.
+   */
+  private static final int LINES = 150;
+
+  /**
+   * The number of threads submitting commands, and running them.
+   */
+  private static final int THREADS = 8;
+
+  public static void main(String[] args) throws Exception {
+    int sessions = args.length > 0 ? Integer.parseInt(args[0]) : SESSIONS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    ExecutorService submitters = Executors.newFixedThreadPool(THREADS);
+    AsyncCalculator calculator = new AsyncCalculator(executor);
+    try {
+      // a failure keeps the output before it, and the session goes on
+      calculator.submit("failing", "1 2");
+      try {
+        calculator.submit("failing", "d 5 0 %").get();
+        Check.fail("\"5 0 %\" did not fail");
+      } catch (ExecutionException e) {
+        Check.that(e.getCause() instanceof AsyncCalculator.CommandException,
+            "failed with " + e.getCause());
+        AsyncCalculator.CommandException failure = (AsyncCalculator.CommandException) e.getCause();
+        Check.equal(List.of("1", "2"), failure.output(), "output before the failure");
+        Check.that(failure.getCause() instanceof ArithmeticException,
+            "caused by " + failure.getCause());
+      }
+      Check.equal(List.of("1", "2", "5", "0"), calculator.submit("failing", "d").get(),
+          "stack after the failure");
+
+      calculator.submit("shared", "0");
+      List<CompletableFuture<Long>> results = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        int thread = t;
+        results.add(CompletableFuture.supplyAsync(
+            () -> submit(calculator, sessions, thread, new Random(seed + thread)), submitters));
+      }
+      long failures = 0;
+      for (CompletableFuture<Long> result : results) {
+        failures += result.get();
+      }
+      long lines = (long) sessions * LINES + THREADS * LINES;
+      Check.equal(List.of(Integer.toString(THREADS * LINES)),
+          calculator.submit("shared", "=").get(), "shared total");
+      Check.equal(0L, calculator.pending(), "pending commands");
+      // three commands of the failing session, and the first and last of the shared one
+      Check.equal(lines + 5, calculator.completed(), "completed commands");
+      Check.equal(sessions + 2, calculator.sessions(), "sessions");
+      System.out.printf("%d lines of %d sessions submitted from %d threads completed in order, "
+          + "%d failed with their output (seed %d)%n", lines, sessions, THREADS, failures, seed);
+    } finally {
+      submitters.shutdownNow();
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Submit random lines to the sessions of one thread, the sessions being interleaved, adding to
+   * the shared session between them, then check every future against a calculator of each
+   * session's own.
+   *
+   * @param calculator The calculator under test
+   * @param sessions The number of sessions across all threads
+   * @param thread The number of the thread, which submits to every session with that remainder
+   * @param random The source of lines
+   * @return the number of lines that failed
+   */
+  private static long submit(AsyncCalculator calculator, int sessions, int thread,
+      Random random) {
+    List<Integer> ids = new ArrayList<>();
+    for (int id = thread; id < sessions; id += THREADS) {
+      ids.add(id);
+    }
+    List<List<String>> scripts = new ArrayList<>();
+    List<List<CompletableFuture<List<String>>>> futures = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i++) {
+      scripts.add(new ArrayList<>());
+      futures.add(new ArrayList<>());
+    }
+    for (int line = 0; line < LINES; line++) {
+      for (int i = 0; i < ids.size(); i++) {
+        String command = DifferentialTest.randomLine(random);
+        scripts.get(i).add(command);
+        futures.get(i).add(calculator.submit("session " + ids.get(i), command));
+      }
+      calculator.submit("shared", "1 +");
+    }
+
+    long failures = 0;
+    for (int i = 0; i < ids.size(); i++) {
+      CollectingOutputSink out = new CollectingOutputSink();
+      SRPN reference = new SRPN(out, new ProgramCache());
+      for (int line = 0; line < LINES; line++) {
+        String command = scripts.get(i).get(line);
+        String what = "line " + line + " \"" + command + "\" of session " + ids.get(i);
+        out.clear();
+        RuntimeException expected = null;
+        try {
+          reference.processCommand(command);
+        } catch (RuntimeException e) {
+          expected = e;
+        }
+        try {
+          List<String> output = futures.get(i).get(line).join();
+          Check.that(expected == null, what + " did not fail with " + expected);
+          Check.equal(out.lines(), output, what);
+        } catch (RuntimeException e) {
+          Check.that(expected != null, what + " failed with " + e);
+          Check.that(e.getCause() instanceof AsyncCalculator.CommandException,
+              what + " failed with " + e.getCause());
+          AsyncCalculator.CommandException failure =
+              (AsyncCalculator.CommandException) e.getCause();
+          Check.equal(out.lines(), failure.output(), "output of " + what);
+          Check.equal(expected.getClass(), failure.getCause().getClass(), "failure of " + what);
+          failures++;
+        }
+      }
+    }
+    return failures;
+  }
+}
@@ -0,0 +1,46 @@
+import java.util.Objects;
+
+/**
+ * Check holds the assertions shared by the test harnesses, each of which prints the failure and
+ * exits with status 1, so that the test phase of the build fails.
+ */
+final class Check {
+
+  private Check() {
+  }
+
+  /**
+   * Fail unless a condition holds.
+   *
+   * @param condition The condition
+   * @param message The failure, printed if the condition does not hold
+   */
+  static void that(boolean condition, String message) {
+    if (!condition) {
+      fail(message);
+    }
+  }
+
+  /**
+   * Fail unless two values are equal.
+   *
+   * @param expected The expected value
+   * @param actual The actual value
+   * @param what A description of the value
+   */
+  static void equal(Object expected, Object actual, String what) {
+    if (!Objects.equals(expected, actual)) {
+      fail(what + ": expected " + expected + ", got " + actual);
+    }
+  }
+
+  /**
+   * Print a failure and exit with status 1.
+   *
+   * @param message The failure
+   */
+  static void fail(String message) {
+    System.out.println("FAILED: " + message);
+    System.exit(1);
+  }
+}
@@ -0,0 +1,122 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ColumnEvaluatorTest checks that {@link ColumnEvaluator} gives every row the result and status
+ * that an {@link SRPN} gives the same program with the values of the row in place of the column
+ * names.
+ * <p>
+ * Random programs over three columns are evaluated on random rows of values that include the
+ * limits of an Integer and 0, so that saturation, division by 0 and stack errors are all
+ * exercised. Run with {@code --add-modules jdk.incubator.vector} to check the Vector API kernels,
+ * and without it to check the scalar loops.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first difference is printed and the
+ * test exits with status 1.
+ * <p>
+ * Usage: java ColumnEvaluatorTest [programs] [seed]
+ */
+class ColumnEvaluatorTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 5;
+
+  /**
+   * The number of programs evaluated when no number is given.
+   */
+  private static final int PROGRAMS = 3000;
+
+  /**
+   * The tokens programs are made of.
+   */
+  private static final String[] TOKENS = {
+      "a", "b", "c", "a", "b", "c", "1", "0", "-3", "7", "+", "-", "*", "+", "-", "*", "/", "%",
+      "^", "=", "d", "+=", "/="
+  };
+
+  /**
+   * The values of the columns.
+   */
+  private static final int[] VALUES = {
+      0, 1, -1, 2, 3, 7, -7, 31, -2, 100, 46341, -46341, 65536, Integer.MAX_VALUE,
+      Integer.MIN_VALUE, Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1
+  };
+
+  public static void main(String[] args) {
+    int programs = args.length > 0 ? Integer.parseInt(args[0]) : PROGRAMS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    Random random = new Random(seed);
+    long rows = 0;
+    for (int p = 0; p < programs; p++) {
+      StringBuilder program = new StringBuilder();
+      int length = random.nextInt(30);
+      for (int i = 0; i < length; i++) {
+        program.append(TOKENS[random.nextInt(TOKENS.length)]).append(' ');
+      }
+      ColumnEvaluator evaluator = ColumnEvaluator.compile(program.toString(), "abc");
+      int count = 1 + random.nextInt(3000);
+      int[][] columns = new int[3][count];
+      for (int[] column : columns) {
+        for (int i = 0; i < count; i++) {
+          // values from the whole range as well as the boundaries, so that lanes overflow
+          column[i] = random.nextInt(4) == 0
+              ? random.nextInt() : VALUES[random.nextInt(VALUES.length)];
+        }
+      }
+      int[] results = new int[count];
+      byte[] status = new byte[count];
+      evaluator.evaluate(columns, results, status);
+
+      for (int i = 0; i < count; i++) {
+        String line = program.toString()
+            .replace("a", Integer.toString(columns[0][i]))
+            .replace("b", Integer.toString(columns[1][i]))
+            .replace("c", Integer.toString(columns[2][i]));
+        CollectingOutputSink out = new CollectingOutputSink();
+        SRPN srpn = new SRPN(out);
+        int expected;
+        byte expectedStatus;
+        try {
+          srpn.processCommand(line);
+          IntStack stack = srpn.stack();
+          expected = stack.isEmpty() ? 0 : stack.peek();
+          expectedStatus = status(out.lines(), stack.isEmpty()
+              ? ColumnEvaluator.STACK_EMPTY : ColumnEvaluator.OK);
+        } catch (ArithmeticException e) {
+          expected = 0;
+          expectedStatus = status(out.lines(), ColumnEvaluator.MOD_BY_ZERO);
+        }
+        if (results[i] != expected || status[i] != expectedStatus) {
+          System.out.printf("Row %d of \"%s\" differs: SRPN %d status %d, columns %d status %d%n",
+              i, line, expected, expectedStatus, results[i], status[i]);
+          System.exit(1);
+        }
+      }
+      rows += count;
+    }
+    System.out.printf("%d rows of %d programs identical (seed %d, vector kernels %s)%n", rows,
+        programs, seed, VectorKernels.AVAILABLE ? "on" : "off");
+  }
+
+  /**
+   * Get the status of a row from the first error output by the calculator.
+   *
+   * @param output The output of the calculator
+   * @param otherwise The status if no error was output
+   * @return the status of the row
+   */
+  private static byte status(List<String> output, byte otherwise) {
+    for (String line : output) {
+      if (line.equals(ErrorCode.STACK_UNDERFLOW.message)) {
+        return ColumnEvaluator.STACK_UNDERFLOW;
+      } else if (line.equals(ErrorCode.STACK_OVERFLOW.message)) {
+        return ColumnEvaluator.STACK_OVERFLOW;
+      } else if (line.equals(ErrorCode.DIVIDE_BY_ZERO.message)) {
+        return ColumnEvaluator.DIVIDE_BY_ZERO;
+      }
+    }
+    return otherwise;
+  }
+}
@@ -0,0 +1,249 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * DifferentialTest checks that {@link SRPN} behaves exactly like the original implementation,
+ * kept as {@link LegacySRPN}, on randomly generated input.
+ * <p>
+ * Two things are compared. The tokens produced by the {@link Lexer} are compared with those of the
+ * regular expression pipeline it replaced, on random strings over an alphabet of digits, operators,
+ * comment markers, letters and unusual whitespace. Then whole sessions of random lines are run
+ * through both calculators and their output compared line by line, along with any exception that
+ * ends a session, such as the one thrown for a modulo division by 0. A pool of lines is repeated
+ * across sessions, which share a program cache, so that hot lines reach the compiled tier; run with
+ * {@code -Dsrpn.jit.threshold=0} to compile every line instead.
+ * <p>
+ * Literals outside the limits of an Integer are left out of the sessions, since they are now
+ * saturated where the original reported them as unrecognised. Lines where tokens run together
+ * into such a literal are generated again.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first difference is printed and the
+ * test exits with status 1.
+ * <p>
+ * Usage: java DifferentialTest [sessions] [seed]
+ */
+class DifferentialTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 20_160_304L;
+
+  /**
+   * The number of sessions run when no number is given.
+   */
+  private static final int SESSIONS = 20_000;
+
+  /**
+   * The number of random strings tokenized by both lexers.
+   */
+  private static final int LEXER_INPUTS = 2_000_000;
+
+  /**
+   * The characters random strings for the lexer are made of.
+   */
+  private static final String ALPHABET =
+      "0123456789+-*/^%=#dr xZ\t\n\r\u0001\u001f\u0085\u2028\f\u000b.";
+
+  /**
+   * Strings whose tokens are checked before the random ones.
+   */
+  private static final String[] LEXER_CASES = {
+      "", "1 2 + =", "1#c#2", "+#c#=", "-#x#=", "3-2", "-5", "--=", "+==", "=+=", "\u0001+\u0002",
+      "5\u0001 \u0002", "#a\n#b#c", "#", "##", "d r", "5\u0001#c#", "10 2+3*=", "abc", "1 # 2 # 3"
+  };
+
+  /**
+   * The tokens random lines are made of.
+   */
+  private static final String[] TOKENS = {
+      "0", "1", "2", "3", "7", "-1", "-5", "17", "100", "65536", "46341", "2147483647",
+      "-2147483648", "007", "+", "-", "*", "/", "%", "^", "=", "d", "r", "+=", "-=",
+      "*=", "/=", "%=", "^=", "x", "#c#", "# comment #", "#"
+  };
+
+  /**
+   * The separators placed between tokens, including none, so that tokens run together.
+   */
+  private static final String[] SEPARATORS = {" ", " ", " ", "", "  ", "\t"};
+
+  public static void main(String[] args) {
+    int sessions = args.length > 0 ? Integer.parseInt(args[0]) : SESSIONS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    Random random = new Random(seed);
+
+    for (String input : LEXER_CASES) {
+      checkTokens(input);
+    }
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < LEXER_INPUTS; i++) {
+      input.setLength(0);
+      int length = random.nextInt(14);
+      for (int j = 0; j < length; j++) {
+        input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+      }
+      checkTokens(input.toString());
+    }
+
+    String[] hotLines = new String[64];
+    for (int i = 0; i < hotLines.length; i++) {
+      hotLines[i] = randomLine(random);
+    }
+    ProgramCache programs = new ProgramCache();
+    PrintStream console = System.out;
+    ByteArrayOutputStream legacyOutput = new ByteArrayOutputStream();
+    PrintStream legacyStream = new PrintStream(legacyOutput, true);
+    long lines = 0;
+    for (int session = 0; session < sessions; session++) {
+      List<String> script = new ArrayList<>();
+      int length = 1 + random.nextInt(8);
+      for (int i = 0; i < length; i++) {
+        script.add(random.nextBoolean() ? hotLines[random.nextInt(hotLines.length)]
+            : randomLine(random));
+      }
+      lines += script.size();
+
+      legacyOutput.reset();
+      System.setOut(legacyStream);
+      String legacyFailure;
+      try {
+        legacyFailure = run(new LegacySRPN()::processCommand, script);
+      } finally {
+        System.setOut(console);
+      }
+      List<String> expected = legacyOutput.size() == 0 ? List.of()
+          : Arrays.asList(legacyOutput.toString().split(System.lineSeparator(), -1));
+      expected = expected.isEmpty() ? expected : expected.subList(0, expected.size() - 1);
+
+      CollectingOutputSink out = new CollectingOutputSink();
+      SRPN srpn = new SRPN(new ConsoleListener(out), programs, new LegacyRandomSource());
+      String failure = run(srpn::processCommand, script);
+
+      if (!expected.equals(out.lines()) || !String.valueOf(legacyFailure).equals(
+          String.valueOf(failure))) {
+        console.println("Session " + session + " differs: " + script);
+        console.println("legacy: " + expected + (legacyFailure == null ? "" : " " + legacyFailure));
+        console.println("srpn:   " + out.lines() + (failure == null ? "" : " " + failure));
+        System.exit(1);
+      }
+    }
+    System.out.printf("%d lexer inputs and %d sessions of %d lines identical (seed %d)%n",
+        LEXER_CASES.length + LEXER_INPUTS, sessions, lines, seed);
+  }
+
+  /**
+   * Process the lines of a script in order, stopping at the first exception as the console does.
+   *
+   * @param calculator The processCommand method of the calculator
+   * @param script The lines to be processed
+   * @return the class of the exception that stopped the script, or null
+   */
+  private static String run(Consumer<String> calculator, List<String> script) {
+    for (String line : script) {
+      try {
+        calculator.accept(line);
+      } catch (RuntimeException e) {
+        // the message is not compared, as a hot exception is thrown without one
+        return e.getClass().getName();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Generate a random line of tokens and separators.
+   *
+   * @param random The source of randomness
+   * @return a line of input
+   */
+  static String randomLine(Random random) {
+    StringBuilder line = new StringBuilder();
+    int length = random.nextInt(24);
+    for (int i = 0; i < length; i++) {
+      line.append(TOKENS[random.nextInt(TOKENS.length)]);
+      line.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+    }
+    for (String token : regexTokens(line.toString())) {
+      if (token.matches("[+-]?[0-9]+") && !fitsInteger(token)) {
+        // tokens run together, or joined by removing a comment, made a literal out of range
+        return randomLine(random);
+      }
+    }
+    return line.toString();
+  }
+
+  /**
+   * Check whether an integer literal is within the limits of an Integer.
+   *
+   * @param literal An optional sign followed by digits
+   * @return true if the literal can be parsed as an Integer
+   */
+  private static boolean fitsInteger(String literal) {
+    try {
+      Integer.parseInt(literal);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Check that the lexer splits a string into the same tokens as the regular expression pipeline.
+   *
+   * @param input The string to be tokenized
+   */
+  private static void checkTokens(String input) {
+    List<String> expected = regexTokens(input);
+    List<String> tokens = new ArrayList<>();
+    Lexer lexer = new Lexer();
+    lexer.reset(input);
+    while (lexer.next()) {
+      tokens.add(lexer.text());
+    }
+    if (!expected.equals(tokens)) {
+      System.out.println("Tokens of " + escape(input) + " differ");
+      System.out.println("regex: " + escape(expected.toString()));
+      System.out.println("lexer: " + escape(tokens.toString()));
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Split a string into tokens as the original processCommand did.
+   *
+   * @param command The string to be tokenized
+   * @return the tokens of the string
+   */
+  private static List<String> regexTokens(String command) {
+    command = command.replaceAll("#.*#", "");
+    command = command.replaceAll("([+/*^%])(?!=)", " $1 ");
+    command = command.replaceAll("(\\+=|-=|/=|\\*=|\\^=|%=)", " $1 ");
+    command = command.replaceAll("([a-zA-Z])", " $1 ");
+    command = command.replaceAll("\\s+", " ");
+    command = command.trim();
+    return command.isEmpty() ? List.of() : Arrays.asList(command.split(" "));
+  }
+
+  /**
+   * Escape the control and non-ASCII characters of a string so that it can be printed.
+   *
+   * @param text The string to be escaped
+   * @return the string with unusual characters as Unicode escapes
+   */
+  private static String escape(String text) {
+    StringBuilder escaped = new StringBuilder();
+    for (char character : text.toCharArray()) {
+      if (character < ' ' || character > '~') {
+        escaped.append(String.format("\\u%04x", (int) character));
+      } else {
+        escaped.append(character);
+      }
+    }
+    return escaped.toString();
+  }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * JournalTest checks that a session journaled by {@link CommandJournal} is resumed exactly after
+ * a restart, including after the crashes a write-ahead log must survive.
+ * <p>
+ * Each trial runs random lines from {@link DifferentialTest} in a journaled session and in a
+ * reference session without a journal, over several restarts. Every restart resumes a fresh
+ * session from the journal, which then holds a snapshot followed by commands, and checks that its
+ * state is identical to the reference, that the journal has been compacted to a single snapshot,
+ * and that the output of the next lines is identical. Between restarts the journal is damaged as a
+ * crash would leave it: with a torn last record, a torn header, or a tail of zeros. A line that
+ * throws ends a run as it ends a console session, and is replayed to the same point.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first failure is printed and the test
+ * exits with status 1.
+ * <p>
+ * Usage: java JournalTest [trials] [seed]
+ */
+class JournalTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 17;
+
+  /**
+   * The number of trials when no number is given.
+   */
+  private static final int TRIALS = 300;
+
+  /**
+   * The number of restarts in each trial.
+   */
+  private static final int RESTARTS = 4;
+
+  /**
+   * The length of a journal holding only a snapshot: the record header and the snapshot.
+   */
+  private static final long COMPACTED_SIZE = Integer.BYTES + 1 + Snapshot.SIZE;
+
+  public static void main(String[] args) throws IOException {
+    int trials = args.length > 0 ? Integer.parseInt(args[0]) : TRIALS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    Random random = new Random(seed);
+    Path directory = Files.createTempDirectory("srpn-journal");
+    long lines = 0;
+    int[] damages = new int[4];
+    for (int trial = 0; trial < trials; trial++) {
+      Path path = directory.resolve(trial + ".journal");
+      CollectingOutputSink referenceOut = new CollectingOutputSink();
+      SRPN reference = new SRPN(referenceOut);
+      for (int run = 0; run < RESTARTS; run++) {
+        String where = "trial " + trial + " run " + run;
+        CollectingOutputSink out = new CollectingOutputSink();
+        SRPN session = new SRPN(out);
+        CommandJournal journal = new CommandJournal(path, session, 1 + random.nextInt(256), 0);
+        Check.equal(Files.size(path), COMPACTED_SIZE, where + ": compacted journal length");
+        Check.that(Arrays.equals(state(reference), state(session)),
+            where + ": resumed state differs from the reference");
+
+        referenceOut.clear();
+        List<String> script = new ArrayList<>();
+        int length = random.nextInt(10);
+        for (int i = 0; i < length; i++) {
+          script.add(DifferentialTest.randomLine(random));
+        }
+        lines += script.size();
+        String failure = run(session, script);
+        Check.equal(run(reference, script), failure, where + ": failure of " + script);
+        Check.equal(referenceOut.lines(), out.lines(), where + ": output of " + script);
+        journal.close();
+
+        long valid = Files.size(path);
+        int damage = random.nextInt(damages.length);
+        damages[damage]++;
+        damage(path, damage, random);
+        Check.equal(valid, CommandJournal.replay(path, null), where + ": valid length after "
+            + "damage " + damage);
+      }
+      SRPN resumed = new SRPN(NullOutputSink.INSTANCE);
+      new CommandJournal(path, resumed, 1, 0).close();
+      Check.that(Arrays.equals(state(reference), state(resumed)),
+          "trial " + trial + ": final state differs from the reference");
+      Files.delete(path);
+    }
+    Files.delete(directory);
+    System.out.printf("%d journals of %d lines resumed identically over %d restarts each "
+        + "(undamaged %d, torn record %d, torn header %d, zero tail %d, seed %d)%n", trials,
+        lines, RESTARTS, damages[0], damages[1], damages[2], damages[3], seed);
+  }
+
+  /**
+   * Process the lines of a script in order, stopping at the first exception as the console does.
+   *
+   * @param srpn The session
+   * @param script The lines to be processed
+   * @return the class of the exception that stopped the script, or null
+   */
+  private static String run(SRPN srpn, List<String> script) {
+    for (String line : script) {
+      try {
+        srpn.processCommand(line);
+      } catch (RuntimeException e) {
+        return e.getClass().getName();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the state of a session as the bytes of its snapshot.
+   *
+   * @param srpn The session
+   * @return the snapshot of the session
+   */
+  private static byte[] state(SRPN srpn) {
+    ByteBuffer snapshot = ByteBuffer.allocate(Snapshot.SIZE);
+    Snapshot.save(srpn, snapshot);
+    return snapshot.array();
+  }
+
+  /**
+   * Append to a journal what a crash could leave after its last complete record.
+   *
+   * @param path The journal
+   * @param damage 0 for nothing, 1 for a record missing part of its payload, 2 for part of a
+   *     record header, and 3 for a tail of zeros
+   * @param random The source of randomness
+   * @throws IOException if the journal could not be written
+   */
+  private static void damage(Path path, int damage, Random random) throws IOException {
+    ByteBuffer tail = ByteBuffer.allocate(1 << 12);
+    switch (damage) {
+      case 1:
+        tail.putInt(20).put((byte) 2).put("1 2 +".getBytes(StandardCharsets.UTF_8));
+        break;
+      case 2:
+        tail.put(new byte[] {0, 0, 1});
+        break;
+      case 3:
+        tail.position(1 + random.nextInt(tail.capacity() - 1));
+        break;
+      default:
+        return;
+    }
+    tail.flip();
+    Files.write(path, Arrays.copyOf(tail.array(), tail.limit()), StandardOpenOption.APPEND);
+  }
+}
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * MappedSessionStoreTest checks that the sessions of a {@link MappedSessionStore} survive a restart
+ * exactly, and that damage to the file is detected and can be recovered from.
+ * <p>
+ * Random lines from {@link DifferentialTest} are run in stored sessions and in reference sessions
+ * of their own, some sessions are closed, and the store is closed and opened again. Every open
+ * session must then have the same generation and produce the same output as its reference, which
+ * shows that its stack and the position of its randoms were kept. A slot is then damaged, and
+ * another overwritten with a copy of a third, and each must be reported until it is reset, without
+ * affecting the others. Finally a file whose creation was interrupted must be created again.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first failure is printed and the test
+ * exits with status 1.
+ * <p>
+ * Usage: java MappedSessionStoreTest [sessions] [seed]
+ */
+class MappedSessionStoreTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 25;
+
+  /**
+   * The number of sessions opened when no number is given.
+   */
+  private static final int SESSIONS = 2000;
+
+  /**
+   * The number of bytes in the header of a store.
+   */
+  private static final int HEADER = 64;
+
+  /**
+   * A session of a store, with the reference session it is compared with.
+   */
+  private static final class Session {
+
+    /**
+     * The id of the session in the store.
+     */
+    final int id;
+
+    /**
+     * The output of the session in the store.
+     */
+    final CollectingOutputSink out = new CollectingOutputSink();
+
+    /**
+     * The output of the reference session.
+     */
+    final CollectingOutputSink referenceOut = new CollectingOutputSink();
+
+    /**
+     * The reference session.
+     */
+    final SRPN reference;
+
+    /**
+     * The generation of the session, read when it was opened.
+     */
+    int generation;
+
+    Session(int id, ProgramCache programs) {
+      this.id = id;
+      this.reference = new SRPN(new ConsoleListener(this.referenceOut), programs,
+          new LegacyRandomSource());
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : SESSIONS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    Random random = new Random(seed);
+    Path directory = Files.createTempDirectory("srpn-store");
+    Path path = directory.resolve("sessions");
+    ProgramCache programs = new ProgramCache();
+
+    MappedSessionStore store = new MappedSessionStore(path, count, true, 0);
+    List<Session> sessions = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Session session = new Session(store.open(), programs);
+      session.generation = store.generation(session.id);
+      sessions.add(session);
+      run(store, session, random, "d");
+    }
+    // closed sessions are reopened in the same slots, in a later generation
+    for (int i = 0; i < count; i += 7) {
+      Check.that(store.close(sessions.get(i).id), "close " + sessions.get(i).id);
+    }
+    for (int i = 0; i < count; i += 7) {
+      Session session = new Session(store.open(), programs);
+      session.generation = store.generation(session.id);
+      Check.equal(sessions.get(i).generation + 1, session.generation,
+          "generation of reopened slot " + session.id);
+      sessions.set(i, session);
+      run(store, session, random, "");
+    }
+    List<Session> closed = new ArrayList<>();
+    for (int i = 3; i < count; i += 11) {
+      Check.that(store.close(sessions.get(i).id), "close " + sessions.get(i).id);
+      closed.add(sessions.get(i));
+    }
+    sessions.removeAll(closed);
+    store.close();
+
+    store = new MappedSessionStore(path, 1, false, 0);
+    Check.equal(count, store.capacity(), "capacity after restart");
+    Check.equal(sessions.size(), store.sessions(), "sessions after restart");
+    for (Session session : closed) {
+      Check.that(!store.isOpen(session.id), "closed session " + session.id + " is open");
+    }
+    for (Session session : sessions) {
+      Check.equal(session.generation, store.generation(session.id),
+          "generation of session " + session.id + " after restart");
+      run(store, session, random, "d");
+    }
+
+    // damage one slot and make another a copy of a third, with a valid checksum
+    Session damaged = sessions.get(random.nextInt(sessions.size()));
+    Session copied;
+    Session overwritten;
+    do {
+      copied = sessions.get(random.nextInt(sessions.size()));
+      overwritten = sessions.get(random.nextInt(sessions.size()));
+    } while (copied == overwritten || copied == damaged || overwritten == damaged);
+    store.close();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      long offset = slot(damaged.id) + 16 + 20;
+      ByteBuffer bytes = ByteBuffer.allocate(1);
+      channel.read(bytes, offset);
+      bytes.put(0, (byte) (bytes.get(0) ^ 0x40));
+      channel.write(bytes.rewind(), offset);
+      ByteBuffer slot = ByteBuffer.allocate(MappedSessionStore.SLOT_SIZE);
+      channel.read(slot, slot(copied.id));
+      channel.write(slot.flip(), slot(overwritten.id));
+    }
+    store = new MappedSessionStore(path, count, true, 0);
+    for (Session session : List.of(damaged, overwritten)) {
+      try {
+        store.evaluate(session.id, "d", new ConsoleListener(session.out));
+        Check.fail("damaged slot " + session.id + " was evaluated");
+      } catch (IllegalStateException e) {
+        // reported until the session is reset
+      }
+      try {
+        store.evaluate(session.id, "d", new ConsoleListener(session.out));
+        Check.fail("damaged slot " + session.id + " was evaluated again");
+      } catch (IllegalStateException e) {
+        // still reported
+      }
+      Check.that(store.reset(session.id), "reset " + session.id);
+      Check.equal(session.generation, store.generation(session.id),
+          "generation of reset session " + session.id);
+      Session fresh = new Session(session.id, programs);
+      sessions.set(sessions.indexOf(session), fresh);
+    }
+    for (Session session : sessions) {
+      run(store, session, random, "d");
+    }
+    store.close();
+
+    // a file extended but without a header is created again
+    Path interrupted = directory.resolve("interrupted");
+    Files.write(interrupted, new byte[HEADER + 3 * MappedSessionStore.SLOT_SIZE + 5]);
+    MappedSessionStore recreated = new MappedSessionStore(interrupted, 16, true, 0);
+    Check.equal(16, recreated.capacity(), "capacity of a recreated store");
+    Check.equal(0, recreated.sessions(), "sessions of a recreated store");
+    Check.equal((long) HEADER + 16 * MappedSessionStore.SLOT_SIZE, Files.size(interrupted),
+        "size of a recreated store");
+    recreated.close();
+
+    Files.delete(interrupted);
+    Files.delete(path);
+    Files.delete(directory);
+    System.out.printf("%d sessions identical after a restart, 2 damaged slots reported and reset "
+        + "(seed %d)%n", count, seed);
+  }
+
+  /**
+   * Run a line and a few random lines in a stored session and its reference, and compare their
+   * output, including the exception that ends a line that throws.
+   *
+   * @param store The store
+   * @param session The session
+   * @param random The source of randomness
+   * @param first The line run first
+   */
+  private static void run(MappedSessionStore store, Session session, Random random,
+      String first) {
+    List<String> script = new ArrayList<>();
+    script.add(first);
+    int length = random.nextInt(4);
+    for (int i = 0; i < length; i++) {
+      script.add(DifferentialTest.randomLine(random));
+    }
+    for (String line : script) {
+      String failure = null;
+      String referenceFailure = null;
+      try {
+        store.evaluate(session.id, line, new ConsoleListener(session.out));
+      } catch (ArithmeticException e) {
+        failure = e.getClass().getName();
+      }
+      try {
+        session.reference.processCommand(line);
+      } catch (ArithmeticException e) {
+        referenceFailure = e.getClass().getName();
+      }
+      Check.equal(referenceFailure, failure, "failure of session " + session.id + " on " + line);
+    }
+    Check.equal(session.referenceOut.lines(), session.out.lines(),
+        "output of session " + session.id + " for " + script);
+    session.out.clear();
+    session.referenceOut.clear();
+  }
+
+  /**
+   * Get the offset of the slot of a session within the file.
+   *
+   * @param id The id of the session
+   * @return the index of the first byte of the slot
+   */
+  private static long slot(int id) {
+    return HEADER + (long) id * MappedSessionStore.SLOT_SIZE;
+  }
+}
@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * OffHeapSessionStoreTest checks how an {@link OffHeapSessionStore} packs sessions into slabs,
+ * reuses the slots of closed sessions, serializes concurrent commands, and handles listeners that
+ * call back into the store.
+ * <p>
+ * More sessions are opened than fit in one slab, each given a different stack, and every stack is
+ * then displayed to check that no two slots overlap. Closed ids must be reused before the store
+ * grows, with an empty stack. Several threads then add to one session, and to sessions sharing its
+ * lock, and no addition may be lost. Finally a listener evaluates commands for other sessions from
+ * within a command, which must leave both sessions as if the commands had run one after the other,
+ * and for its own session, which must be rejected.
+ * <p>
+ * The first failure is printed and the test exits with status 1.
+ * <p>
+ * Usage: java OffHeapSessionStoreTest
+ */
+class OffHeapSessionStoreTest {
+
+  /**
+   * The number of sessions opened, more than fit in one slab.
+   */
+  private static final int SESSIONS = OffHeapSessionStore.SLOTS_PER_SLAB + 1000;
+
+  /**
+   * The number of threads adding to the same sessions.
+   */
+  private static final int THREADS = 8;
+
+  /**
+   * The number of additions made by each thread to each session.
+   */
+  private static final int ADDITIONS = 20_000;
+
+  /**
+   * The number of locks of a store, so that ids this far apart share one.
+   */
+  private static final int LOCKS = 256;
+
+  public static void main(String[] args) throws InterruptedException {
+    OffHeapSessionStore store = new OffHeapSessionStore();
+    CollectingOutputSink out = new CollectingOutputSink();
+    ConsoleListener listener = new ConsoleListener(out);
+
+    for (int i = 0; i < SESSIONS; i++) {
+      Check.equal(i, store.open(), "id of session " + i);
+      store.evaluate(i, (i % 1000) + " " + (i / 1000), listener);
+    }
+    Check.equal(SESSIONS, store.sessions(), "sessions");
+    Check.equal(2L * OffHeapSessionStore.SLOTS_PER_SLAB * Snapshot.SIZE, store.capacityBytes(),
+        "bytes of two slabs");
+    for (int i = 0; i < SESSIONS; i++) {
+      out.clear();
+      store.evaluate(i, "d", listener);
+      Check.equal(List.of(Integer.toString(i % 1000), Integer.toString(i / 1000)), out.lines(),
+          "stack of session " + i);
+    }
+
+    Set<Integer> closed = new HashSet<>();
+    for (int i = 5; i < SESSIONS; i += 3) {
+      Check.that(store.close(i), "close " + i);
+      Check.that(!store.close(i), "close " + i + " twice");
+      closed.add(i);
+    }
+    Check.equal(SESSIONS - closed.size(), store.sessions(), "sessions after closing");
+    try {
+      store.evaluate(5, "d", listener);
+      Check.fail("closed session 5 was evaluated");
+    } catch (IllegalArgumentException e) {
+      // no such session
+    }
+    CollectingOutputSink emptyOut = new CollectingOutputSink();
+    new SRPN(emptyOut).processCommand("d");
+    Set<Integer> reused = new HashSet<>();
+    for (int i = 0; i < closed.size(); i++) {
+      int id = store.open();
+      reused.add(id);
+      out.clear();
+      store.evaluate(id, "d", listener);
+      Check.equal(emptyOut.lines(), out.lines(), "stack of reused session " + id);
+    }
+    Check.equal(closed, reused, "reused ids");
+    Check.equal(2L * OffHeapSessionStore.SLOTS_PER_SLAB * Snapshot.SIZE, store.capacityBytes(),
+        "bytes after reuse");
+    Check.equal(SESSIONS, store.open(), "id after every free slot is reused");
+
+    // one session shared by every thread, and one of its own per thread on the same lock
+    int shared = 7;
+    store.evaluate(shared, "0", listener);
+    List<Thread> threads = new ArrayList<>();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int t = 0; t < THREADS; t++) {
+      int own = shared + LOCKS * (t + 1);
+      store.evaluate(own, "0", listener);
+      Thread thread = new Thread(() -> {
+        SrpnListener silent = new ConsoleListener(NullOutputSink.INSTANCE);
+        for (int i = 0; i < ADDITIONS; i++) {
+          store.evaluate(shared, "1 +", silent);
+          store.evaluate(own, "1 +", silent);
+        }
+      });
+      thread.setUncaughtExceptionHandler((th, e) -> failure.set(e));
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Check.that(failure.get() == null, "thread failed: " + failure.get());
+    out.clear();
+    store.evaluate(shared, "=", listener);
+    Check.equal(List.of(Integer.toString(THREADS * ADDITIONS)), out.lines(), "shared total");
+    for (int t = 0; t < THREADS; t++) {
+      out.clear();
+      store.evaluate(shared + LOCKS * (t + 1), "=", listener);
+      Check.equal(List.of(Integer.toString(ADDITIONS)), out.lines(), "total of thread " + t);
+    }
+
+    // a listener evaluating commands for other sessions, and for its own
+    int outer = store.open();
+    int inner = store.open();
+    List<String> events = new ArrayList<>();
+    SrpnListener reentrant = new ResultListener() {
+      @Override
+      public void onResult(int value) {
+        events.add("outer " + value);
+        store.evaluate(inner, "5 6 =", new ResultListener() {
+          @Override
+          public void onResult(int value) {
+            events.add("inner " + value);
+            int opened = store.open();
+            store.evaluate(opened, "9", this);
+            store.close(opened);
+          }
+        });
+        try {
+          store.evaluate(outer, "1", this);
+          events.add("outer evaluated within itself");
+        } catch (IllegalStateException e) {
+          events.add("rejected");
+        }
+        try {
+          store.close(outer);
+          events.add("outer closed within itself");
+        } catch (IllegalStateException e) {
+          events.add("rejected");
+        }
+      }
+    };
+    store.evaluate(outer, "1 2 = 3", reentrant);
+    Check.equal(List.of("outer 2", "inner 6", "rejected", "rejected"), events, "events");
+    out.clear();
+    store.evaluate(outer, "d", listener);
+    Check.equal(List.of("1", "2", "3"), out.lines(), "outer stack");
+    out.clear();
+    store.evaluate(inner, "d", listener);
+    Check.equal(List.of("5", "6"), out.lines(), "inner stack");
+
+    System.out.printf("%d sessions packed in %d slabs, %d ids reused, %d additions on one lock, "
+        + "re-entrant listeners isolated%n", SESSIONS, 2, closed.size(),
+        2L * THREADS * ADDITIONS);
+  }
+
+  /**
+   * ResultListener ignores everything but results, which the test handles.
+   */
+  private abstract static class ResultListener implements SrpnListener {
+
+    @Override
+    public void onDisplay(int[] stack, int depth) {
+    }
+
+    @Override
+    public void onError(ErrorCode error) {
+    }
+  }
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PowerTest checks that {@link IntMath#power(int, int)} saturates to the same result as the
+ * floating point calculation of the legacy program, {@code (long) Math.pow(base, exponent)}, at
+ * and around every boundary of the kernel.
+ * <p>
+ * Every base from -70000 to 70000 is raised to every exponent from -5 to 70, which covers the
+ * bases 0, 1 and -1, negative exponents, the lookup table of small powers and the point where each
+ * exponent up to 70 starts to saturate. To these are added the extreme bases and exponents, and,
+ * for every exponent from 2 to 31, the bases either side of the largest one whose power fits in an
+ * Integer, found independently of the kernel.
+ * <p>
+ * Results within the limits of an Integer are below 2^53, so the floating point calculation is
+ * exact for them and the two must agree everywhere. The first differences are printed and the test
+ * exits with status 1.
+ * <p>
+ * Usage: java PowerTest
+ */
+class PowerTest {
+
+  /**
+   * The number of differences printed before giving up.
+   */
+  private static final int MAX_REPORTED = 10;
+
+  public static void main(String[] args) {
+    List<Integer> bases = new ArrayList<>();
+    for (int base = -70_000; base <= 70_000; base++) {
+      bases.add(base);
+    }
+    int[] extremes = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Integer.MAX_VALUE,
+        Integer.MAX_VALUE - 1, 1 << 16, -(1 << 16), 1 << 30, -(1 << 30)};
+    for (int base : extremes) {
+      bases.add(base);
+    }
+    for (int exponent = 2; exponent <= 31; exponent++) {
+      long root = largestRoot(exponent);
+      for (long base = root - 2; base <= root + 2; base++) {
+        bases.add((int) base);
+        bases.add((int) -base);
+      }
+    }
+
+    List<Integer> exponents = new ArrayList<>();
+    for (int exponent = -5; exponent <= 70; exponent++) {
+      exponents.add(exponent);
+    }
+    int[] extremeExponents = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Integer.MAX_VALUE,
+        Integer.MAX_VALUE - 1, 127, 128, 1000, -1000, 1001, -1001};
+    for (int exponent : extremeExponents) {
+      exponents.add(exponent);
+    }
+
+    long compared = 0;
+    long differences = 0;
+    for (int base : bases) {
+      for (int exponent : exponents) {
+        compared++;
+        int expected = SRPN.saturate((long) Math.pow(base, exponent));
+        int actual = SRPN.saturate(IntMath.power(base, exponent));
+        if (expected != actual && differences++ < MAX_REPORTED) {
+          System.out.printf("%d ^ %d: legacy %d, kernel %d%n", base, exponent, expected, actual);
+        }
+      }
+    }
+    if (differences > 0) {
+      System.out.printf("%d of %d powers differ%n", differences, compared);
+      System.exit(1);
+    }
+    System.out.printf("%d powers identical%n", compared);
+  }
+
+  /**
+   * Find the largest base whose power fits in an Integer, by repeated multiplication rather than
+   * the kernel under test.
+   *
+   * @param exponent The exponent, at least 2
+   * @return the largest positive base that can be raised to the exponent without saturating
+   */
+  private static long largestRoot(int exponent) {
+    long base = 1;
+    while (fits(base + 1, exponent)) {
+      base++;
+    }
+    return base;
+  }
+
+  /**
+   * Check whether a positive base raised to an exponent is at most the maximum Integer.
+   *
+   * @param base The base, at least 1
+   * @param exponent The exponent
+   * @return true if the power does not saturate
+   */
+  private static boolean fits(long base, int exponent) {
+    long power = 1;
+    for (int i = 0; i < exponent; i++) {
+      power *= base;
+      if (power > Integer.MAX_VALUE) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,216 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ServerTest checks that a {@link Server} gives every connection a session of its own, and that
+ * ending one session leaves the others running.
+ * <p>
+ * Many clients connect at once and send random lines from {@link DifferentialTest}, each response
+ * being compared with the output of a calculator of the client's own fed the same lines, so that
+ * any output, stack or random leaking between sessions is a difference. Every eighth client may be
+ * sent a modulo division by 0, which must end its session with the exception as its last
+ * response, and the others are not sent modulo operators. Some of those then send a line of the
+ * longest length accepted and one longer, which must end only that session with
+ * {@link Server#LINE_TOO_LONG}, and some send {@code 5 0 %}, which must end only that session with
+ * an ArithmeticException. The counters of the server must agree once every client is done.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first failure is printed and the test
+ * exits with status 1.
+ * <p>
+ * Usage: java ServerTest [clients] [seed]
+ */
+class ServerTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 9;
+
+  /**
+   * The number of clients connected at once when no number is given.
+   */
+  private static final int CLIENTS = 48;
+
+  /**
+   * The number of random lines each client sends.
+   */
+  private static final int LINES = 200;
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : CLIENTS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    try (Server server = new Server(0)) {
+      List<Future<Session>> futures = new ArrayList<>();
+      for (int i = 0; i < clients; i++) {
+        int client = i;
+        futures.add(executor.submit(() -> run(server.port(), client, new Random(seed + client))));
+      }
+      long lines = 0;
+      int aborted = 0;
+      int tooLong = 0;
+      int divided = 0;
+      for (Future<Session> future : futures) {
+        Session session = future.get();
+        lines += session.lines;
+        aborted += session.aborted ? 1 : 0;
+        tooLong += session.reason == Server.LINE_TOO_LONG ? 1 : 0;
+        divided += session.reason == DIVIDE ? 1 : 0;
+      }
+      for (int wait = 0; server.activeConnections() > 0 && wait < 500; wait++) {
+        Thread.sleep(10);
+      }
+      Check.equal(0L, server.activeConnections(), "active connections");
+      Check.equal((long) clients, server.totalConnections(), "total connections");
+      Check.equal((long) aborted, server.abortedSessions(), "aborted sessions");
+      Check.equal(lines, server.linesProcessed(), "lines processed");
+      System.out.printf("%d concurrent sessions of %d lines isolated, %d ended (%d too long, %d "
+          + "by 5 0 %%) (seed %d)%n", clients, lines, aborted, tooLong, divided, seed);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * The line that ends a session by a modulo division by 0.
+   */
+  private static final String DIVIDE = "5 0 %";
+
+  /**
+   * Session is what a client did: how many lines the server processed, and whether and why the
+   * session was ended.
+   */
+  private static final class Session {
+
+    /**
+     * The number of lines answered with their output.
+     */
+    long lines = 0;
+
+    /**
+     * Whether the server ended the session.
+     */
+    boolean aborted = false;
+
+    /**
+     * The line that ended the session, if it was one of the deliberate ones, or null.
+     */
+    String reason = null;
+  }
+
+  /**
+   * Send random lines to a new connection, checking each response against a calculator of the
+   * client's own. Every eighth client ends its session with a line that is too long, every eighth
+   * with a modulo division by 0, and every eighth is sent random lines that may end it.
+   *
+   * @param port The port of the server
+   * @param client The number of the client
+   * @param random The source of lines
+   * @return what the session did
+   * @throws IOException if the connection failed
+   */
+  private static Session run(int port, int client, Random random) throws IOException {
+    Session session = new Session();
+    CollectingOutputSink out = new CollectingOutputSink();
+    SRPN reference = new SRPN(out, new ProgramCache());
+    try (Socket socket = new Socket("localhost", port)) {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      int end = client % 8 == 3 || client % 8 == 5 ? random.nextInt(LINES) : LINES;
+      for (int i = 0; i < end; i++) {
+        String line = DifferentialTest.randomLine(random);
+        while (client % 8 != 7 && line.indexOf('%') >= 0) {
+          // only every eighth client risks ending its session by a random modulo division by 0
+          line = DifferentialTest.randomLine(random);
+        }
+        out.clear();
+        String failure = null;
+        try {
+          reference.processCommand(line);
+        } catch (RuntimeException e) {
+          failure = e.getClass().getName();
+        }
+        writer.write(line + "\n");
+        writer.flush();
+        List<String> response = read(reader);
+        String what = "response of client " + client + " to \"" + line + "\"";
+        if (failure == null) {
+          Check.equal(out.lines(), response, what);
+          session.lines++;
+        } else {
+          // the output produced before the failure is sent first
+          Check.equal(out.lines(), response.subList(0, response.size() - 1), what);
+          Check.that(response.get(response.size() - 1).startsWith(failure),
+              what + " ends with " + failure);
+          Check.equal(null, reader.readLine(), "end of ended session " + client);
+          session.aborted = true;
+          return session;
+        }
+      }
+      if (client % 8 == 3) {
+        // the longest line accepted, then a longer one whose end is never sent
+        writer.write(" ".repeat(Server.MAX_LINE_LENGTH) + "\n");
+        writer.flush();
+        Check.equal(List.of(), read(reader), "response of client " + client + " to longest line");
+        session.lines++;
+        writer.write("1".repeat(Server.MAX_LINE_LENGTH + 1));
+        writer.flush();
+        socket.shutdownOutput();
+        Check.equal(List.of(Server.LINE_TOO_LONG), read(reader),
+            "response of client " + client + " to a line too long");
+        session.reason = Server.LINE_TOO_LONG;
+      } else if (client % 8 == 5) {
+        // the stack is first brought down to one operand, so that neither 5 nor 0 overflows
+        String line = "+ ".repeat(22) + DIVIDE;
+        out.clear();
+        try {
+          reference.processCommand(line);
+          Check.fail("\"" + line + "\" did not throw");
+        } catch (ArithmeticException e) {
+          // expected
+        }
+        writer.write(line + "\n");
+        writer.flush();
+        List<String> response = read(reader);
+        Check.equal(out.lines(), response.subList(0, response.size() - 1),
+            "response of client " + client + " to \"" + line + "\"");
+        Check.that(response.get(response.size() - 1).startsWith(
+            ArithmeticException.class.getName()), "client " + client + " ended by " + response);
+        session.reason = DIVIDE;
+      } else {
+        return session;
+      }
+      Check.equal(null, reader.readLine(), "end of ended session " + client);
+      session.aborted = true;
+    }
+    return session;
+  }
+
+  /**
+   * Read a response, the lines up to an empty one.
+   *
+   * @param reader The lines sent by the server
+   * @return the lines of the response
+   * @throws IOException if the connection failed or ended within a response
+   */
+  private static List<String> read(BufferedReader reader) throws IOException {
+    List<String> lines = new ArrayList<>();
+    String line;
+    while (!(line = reader.readLine()).isEmpty()) {
+      lines.add(line);
+    }
+    return lines;
+  }
+}
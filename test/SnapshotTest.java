@@ -0,0 +1,123 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * SnapshotTest checks that a session restored from a {@link Snapshot} goes on exactly as the
+ * session it was saved from.
+ * <p>
+ * Each trial runs random lines from {@link DifferentialTest} in a session, then brings the stack to
+ * a chosen depth, up to the full {@link SRPN#MAX_STACK_SIZE} elements, and takes a chosen
+ * number of randoms, so that the position of the randoms falls anywhere within and beyond the list
+ * of the legacy program. The session is saved at a random offset of a heap or direct buffer of
+ * either byte order, restored into a new session, or into one with a state of its own, and both
+ * are then fed the same random lines, which must give the same output and failures. Every other
+ * trial uses a {@link GlibcRandomSource}, whose sequence does not repeat. A restored session must
+ * also save to the same bytes as the original.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first difference is printed and the
+ * test exits with status 1.
+ * <p>
+ * Usage: java SnapshotTest [trials] [seed]
+ */
+class SnapshotTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 17;
+
+  /**
+   * The number of trials when no number is given.
+   */
+  private static final int TRIALS = 5000;
+
+  public static void main(String[] args) {
+    int trials = args.length > 0 ? Integer.parseInt(args[0]) : TRIALS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    Random random = new Random(seed);
+    ProgramCache programs = new ProgramCache();
+    long lines = 0;
+    int full = 0;
+    for (int trial = 0; trial < trials; trial++) {
+      Supplier<RandomSource> randoms = trial % 2 == 0
+          ? LegacyRandomSource::new : GlibcRandomSource::new;
+      CollectingOutputSink out = new CollectingOutputSink();
+      SRPN original = new SRPN(out, programs, randoms.get());
+      int before = random.nextInt(8);
+      for (int i = 0; i < before; i++) {
+        run(original, DifferentialTest.randomLine(random));
+      }
+      // a chosen depth, up to a full stack, and a chosen position of the randoms
+      int depth = trial % 5 == 0 ? SRPN.MAX_STACK_SIZE : random.nextInt(SRPN.MAX_STACK_SIZE + 1);
+      while (original.stack().size() > Math.max(depth, 1)) {
+        // no operator takes the last operand, so only a session left empty stays empty
+        run(original, "+");
+      }
+      while (original.stack().size() < depth) {
+        run(original, Integer.toString(random.nextInt()));
+      }
+      int taken = random.nextInt(3 * LegacyRandomSource.PERIOD);
+      for (int i = 0; i < taken; i++) {
+        original.randomSource().next();
+      }
+      full += original.stack().size() == SRPN.MAX_STACK_SIZE ? 1 : 0;
+      out.clear();
+
+      ByteBuffer buffer = (random.nextBoolean()
+          ? ByteBuffer.allocate(Snapshot.SIZE + 64) : ByteBuffer.allocateDirect(Snapshot.SIZE + 64))
+          .order(random.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+      int offset = random.nextInt(65);
+      Snapshot.save(original, buffer, offset);
+      CollectingOutputSink restoredOut = new CollectingOutputSink();
+      SRPN restored = new SRPN(restoredOut, programs, randoms.get());
+      if (random.nextBoolean()) {
+        // the state of a used session must be replaced entirely
+        run(restored, "1 2 3 r r r");
+      }
+      Snapshot.restore(restored, buffer, offset);
+      String what = "trial " + trial;
+      ByteBuffer copy = ByteBuffer.allocate(Snapshot.SIZE).order(buffer.order());
+      Snapshot.save(restored, copy, 0);
+      Check.equal(buffer.duplicate().position(offset).limit(offset + Snapshot.SIZE), copy,
+          "snapshot of the restored session of " + what);
+
+      int after = 1 + random.nextInt(8);
+      List<String> script = new ArrayList<>();
+      for (int i = 0; i < after; i++) {
+        // randoms are taken after the restore, so that their position is checked
+        script.add(random.nextInt(3) == 0 ? "r r d" : DifferentialTest.randomLine(random));
+      }
+      for (String line : script) {
+        out.clear();
+        restoredOut.clear();
+        String failure = run(original, line);
+        String restoredFailure = run(restored, line);
+        Check.equal(out.lines(), restoredOut.lines(), "output of \"" + line + "\" in " + what);
+        Check.equal(failure, restoredFailure, "failure of \"" + line + "\" in " + what);
+        lines++;
+      }
+    }
+    System.out.printf("%d sessions restored from snapshots, %d with a full stack, went on "
+        + "identically for %d lines (seed %d)%n", trials, full, lines, seed);
+  }
+
+  /**
+   * Process a line, catching the exception it throws.
+   *
+   * @param srpn The session the line is processed by
+   * @param line The line to be processed
+   * @return the class of the exception thrown, or null
+   */
+  private static String run(SRPN srpn, String line) {
+    try {
+      srpn.processCommand(line);
+      return null;
+    } catch (RuntimeException e) {
+      return e.getClass().getName();
+    }
+  }
+}
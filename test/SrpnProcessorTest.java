@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SrpnProcessorTest checks that an {@link SrpnProcessor} between a publisher of input lines and a
+ * deliberately slow subscriber is throttled by the subscriber, and delivers the output in order.
+ * <p>
+ * Each stream is a script of random lines from {@link DifferentialTest}, only every fourth of
+ * which may contain a modulo division by 0, published on a thread of its own as it is requested.
+ * The subscriber receives output on that thread and asks for more on another after a delay, a few
+ * lines at a time. The publisher must never be asked for a line before every earlier line but the
+ * last is consumed, which is its output having been received by the subscriber. The subscriber
+ * must never be sent a line it has not requested, nor two at once, and what it receives must be
+ * the output of a calculator fed the same script, followed by the exception of a line that throws
+ * or by completion.
+ * <p>
+ * The seed is fixed so that a failure can be reproduced. The first failure is printed and the test
+ * exits with status 1.
+ * <p>
+ * Usage: java SrpnProcessorTest [streams] [seed]
+ */
+class SrpnProcessorTest {
+
+  /**
+   * The seed used when none is given.
+   */
+  private static final long SEED = 23;
+
+  /**
+   * The number of streams when no number is given.
+   */
+  private static final int STREAMS = 200;
+
+  /**
+   * The largest number of lines of a script.
+   */
+  private static final int LINES = 200;
+
+  public static void main(String[] args) throws Exception {
+    int streams = args.length > 0 ? Integer.parseInt(args[0]) : STREAMS;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+    Random random = new Random(seed);
+    ExecutorService publishers = Executors.newCachedThreadPool();
+    ScheduledExecutorService requesters = Executors.newScheduledThreadPool(4);
+    try {
+      List<CompletableFuture<Void>> finished = new ArrayList<>();
+      long lines = 0;
+      long outputs = 0;
+      int failed = 0;
+      for (int s = 0; s < streams; s++) {
+        List<String> script = new ArrayList<>();
+        int length = random.nextInt(LINES);
+        for (int i = 0; i < length; i++) {
+          String line = DifferentialTest.randomLine(random);
+          while (s % 4 != 0 && line.indexOf('%') >= 0) {
+            // only every fourth stream risks ending by a modulo division by 0
+            line = DifferentialTest.randomLine(random);
+          }
+          script.add(line);
+        }
+        // the output each line adds to the stream, stopping at a line that throws
+        CollectingOutputSink out = new CollectingOutputSink();
+        SRPN reference = new SRPN(out);
+        List<Integer> ends = new ArrayList<>();
+        String failure = null;
+        for (String line : script) {
+          try {
+            reference.processCommand(line);
+          } catch (RuntimeException e) {
+            failure = e.getClass().getName();
+            break;
+          } finally {
+            ends.add(out.lines().size());
+          }
+        }
+        lines += ends.size();
+        outputs += out.lines().size();
+        failed += failure == null ? 0 : 1;
+
+        SrpnProcessor processor = new SrpnProcessor();
+        SlowSubscriber subscriber = new SlowSubscriber(
+            "stream " + s, requesters, new Random(random.nextLong()));
+        LinePublisher publisher = new LinePublisher(
+            "stream " + s, script, ends, subscriber.received, publishers);
+        processor.subscribe(subscriber);
+        publisher.subscribe(processor);
+        List<String> expected = out.lines();
+        String expectedFailure = failure;
+        finished.add(subscriber.finished.thenAccept(failureClass -> {
+          Check.equal(expected, subscriber.lines, "output of " + subscriber.name);
+          Check.equal(expectedFailure, failureClass, "failure of " + subscriber.name);
+        }));
+      }
+      CompletableFuture.allOf(finished.toArray(new CompletableFuture<?>[0]))
+          .get(120, TimeUnit.SECONDS);
+      System.out.printf("%d streams of %d lines and %d output lines throttled and in order, %d "
+          + "ended by a failure (seed %d)%n", streams, lines, outputs, failed, seed);
+    } finally {
+      publishers.shutdownNow();
+      requesters.shutdownNow();
+    }
+  }
+
+  /**
+   * LinePublisher publishes the lines of a script as they are requested, on a thread of its own,
+   * checking that no line is requested before the output of all but the last line delivered has
+   * been received.
+   */
+  private static final class LinePublisher implements Flow.Publisher<String> {
+
+    /**
+     * The name of the stream, for messages.
+     */
+    private final String name;
+
+    /**
+     * The lines to be published.
+     */
+    private final List<String> script;
+
+    /**
+     * The number of output lines of the stream up to the end of each line of the script.
+     */
+    private final List<Integer> ends;
+
+    /**
+     * The number of output lines received by the subscriber.
+     */
+    private final AtomicLong received;
+
+    /**
+     * The executor lines are published on.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The number of lines requested.
+     */
+    private final AtomicLong requested = new AtomicLong();
+
+    /**
+     * The number of lines delivered to the processor, counted before each is delivered.
+     */
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    LinePublisher(String name, List<String> script, List<Integer> ends, AtomicLong received,
+        ExecutorService executor) {
+      this.name = name;
+      this.script = script;
+      this.ends = ends;
+      this.received = received;
+      this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+      AtomicBoolean cancelled = new AtomicBoolean();
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+          long requested = LinePublisher.this.requested.addAndGet(n);
+          int consumed = LinePublisher.this.consumed();
+          Check.that(requested <= consumed + 1, LinePublisher.this.name + " requested "
+              + requested + " lines with " + consumed + " consumed");
+          LinePublisher.this.executor.execute(() -> {
+            for (long i = 0; i < n && !cancelled.get(); i++) {
+              int index = LinePublisher.this.delivered.getAndIncrement();
+              if (index < LinePublisher.this.script.size()) {
+                subscriber.onNext(LinePublisher.this.script.get(index));
+              } else {
+                subscriber.onComplete();
+                return;
+              }
+            }
+          });
+        }
+
+        @Override
+        public void cancel() {
+          cancelled.set(true);
+        }
+      });
+    }
+
+    /**
+     * Get the number of lines consumed: delivered, with all their output received.
+     *
+     * @return the number of lines consumed
+     */
+    private int consumed() {
+      int delivered = Math.min(this.delivered.get(), this.ends.size());
+      long received = this.received.get();
+      int consumed = 0;
+      while (consumed < delivered && this.ends.get(consumed) <= received) {
+        consumed++;
+      }
+      return consumed;
+    }
+  }
+
+  /**
+   * SlowSubscriber requests a few lines at a time, and only after a delay once it has received all
+   * it requested, checking that it is never sent more than it requested.
+   */
+  private static final class SlowSubscriber implements Flow.Subscriber<String> {
+
+    /**
+     * The name of the stream, for messages.
+     */
+    final String name;
+
+    /**
+     * The lines received.
+     */
+    final List<String> lines = new ArrayList<>();
+
+    /**
+     * The number of lines received, read by the publisher.
+     */
+    final AtomicLong received = new AtomicLong();
+
+    /**
+     * Completed with the class of the failure the stream ended with, or null when it completes.
+     */
+    final CompletableFuture<String> finished = new CompletableFuture<>();
+
+    /**
+     * The executor requests are made on after a delay.
+     */
+    private final ScheduledExecutorService requesters;
+
+    /**
+     * The source of the sizes of requests and their delays.
+     */
+    private final Random random;
+
+    /**
+     * Whether a signal is being handled, to check that signals are not concurrent.
+     */
+    private final AtomicBoolean signalled = new AtomicBoolean();
+
+    /**
+     * The subscription to the processor.
+     */
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * The number of lines requested and not yet received.
+     */
+    private final AtomicLong demand = new AtomicLong();
+
+    SlowSubscriber(String name, ScheduledExecutorService requesters, Random random) {
+      this.name = name;
+      this.requesters = requesters;
+      this.random = random;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      this.requestLater();
+    }
+
+    @Override
+    public void onNext(String line) {
+      Check.that(this.signalled.compareAndSet(false, true), this.name + " signalled concurrently");
+      Check.that(this.demand.getAndDecrement() > 0, this.name + " sent \"" + line
+          + "\" beyond its demand");
+      this.lines.add(line);
+      this.received.incrementAndGet();
+      if (this.demand.get() == 0) {
+        this.requestLater();
+      }
+      this.signalled.set(false);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      this.finished.complete(throwable.getClass().getName());
+    }
+
+    @Override
+    public void onComplete() {
+      this.finished.complete(null);
+    }
+
+    /**
+     * Request a few more lines after a delay of up to 200 microseconds.
+     */
+    private void requestLater() {
+      int n;
+      long delay;
+      synchronized (this.random) {
+        n = 1 + this.random.nextInt(4);
+        delay = this.random.nextInt(200);
+      }
+      this.requesters.schedule(() -> {
+        this.demand.addAndGet(n);
+        this.subscription.request(n);
+      }, delay, TimeUnit.MICROSECONDS);
+    }
+  }
+}